@@ -0,0 +1,81 @@
+package com.shepherdmoney.interviewproject.benchmark;
+
+import com.shepherdmoney.interviewproject.model.BalanceHistory;
+import com.shepherdmoney.interviewproject.model.CreditCard;
+import com.shepherdmoney.interviewproject.service.BalanceHistoryMerger;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks merging a batch of transactions of one card into its change points, which is the core of the
+ * update-balance path. The card has a change point on every day of its history, which is the worst case for sparse
+ * storage. LegacyGapFillBenchmark measures the per-day gap filling the update path used to do before change points,
+ * as a baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BalanceHistoryMergerBenchmark {
+
+    public enum TransactionDate {
+        // All transactions are today
+        SAME_DAY,
+        // Transactions are spread over the whole history, starting at its first day
+        BACKDATED
+    }
+
+    // 30 days to 5 years
+    @Param({"30", "365", "1825"})
+    private int historyDays;
+
+    @Param({"SAME_DAY", "BACKDATED"})
+    private TransactionDate transactionDate;
+
+    @Param({"1", "100", "1000"})
+    private int batchSize;
+
+    private CreditCard card;
+
+    // Change points the update path loads: those from the first transaction date on
+    private List<BalanceHistory> changePoints;
+
+    private long[] transactionDays;
+
+    private double[] amounts;
+
+    @Setup
+    public void setUp() {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        LocalDate firstDay = today.minusDays(historyDays - 1);
+        LocalDate firstTransactionDay = transactionDate == TransactionDate.SAME_DAY ? today : firstDay;
+
+        card = new CreditCard();
+        changePoints = new ArrayList<>();
+        for (LocalDate date = firstTransactionDay; !date.isAfter(today); date = date.plusDays(1)) {
+            BalanceHistory changePoint = new BalanceHistory();
+            changePoint.setCard(card);
+            changePoint.setDate(date);
+            changePoint.setBalance(date.toEpochDay() - firstDay.toEpochDay());
+            changePoints.add(changePoint);
+        }
+
+        long transactionSpanDays = today.toEpochDay() - firstTransactionDay.toEpochDay() + 1;
+        transactionDays = new long[batchSize];
+        amounts = new double[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            transactionDays[i] = firstTransactionDay.toEpochDay() + i * transactionSpanDays / batchSize;
+            amounts[i] = 1;
+        }
+    }
+
+    @Benchmark
+    public List<BalanceHistory> merge() {
+        // Existing change points keep growing across invocations, which does not change the work done
+        return BalanceHistoryMerger.merge(card, 0, changePoints, transactionDays, amounts, batchSize);
+    }
+}
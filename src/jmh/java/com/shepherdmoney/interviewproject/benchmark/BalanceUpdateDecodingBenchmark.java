@@ -0,0 +1,98 @@
+package com.shepherdmoney.interviewproject.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.shepherdmoney.interviewproject.vo.request.UpdateBalancePayload;
+import com.shepherdmoney.interviewproject.wire.BalanceUpdateRecordDecoder;
+import com.shepherdmoney.interviewproject.wire.BalanceUpdateRecordFormat;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks decoding a body of balance updates on the update-balance path, as a JSON array the way Jackson reads it
+ * for the JSON variant, and as binary records the way the binary variant decodes them into reused transactions.
+ * Scores are records per second, and gc.alloc.rate.norm of the gc profiler is the bytes allocated per record.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(BalanceUpdateDecodingBenchmark.RECORDS)
+public class BalanceUpdateDecodingBenchmark {
+
+    static final int RECORDS = 10_000;
+
+    // Transactions the binary variant reuses, one per transaction of a chunk
+    private static final int CHUNK_SIZE = 1000;
+
+    // Distinct card numbers in the body. The binary decoder caches fewer card numbers than 10000
+    @Param({"100", "10000"})
+    private int cards;
+
+    private ObjectReader jsonReader;
+
+    private byte[] json;
+
+    private byte[] binary;
+
+    private UpdateBalancePayload[] reusedTransactions;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        long now = Instant.now().toEpochMilli();
+        UpdateBalancePayload[] transactions = new UpdateBalancePayload[RECORDS];
+        for (int i = 0; i < RECORDS; i++) {
+            transactions[i] = new UpdateBalancePayload();
+            transactions[i].setCreditCardNumber(String.format("4%015d", random.nextInt(cards)));
+            transactions[i].setTransactionTime(
+                    Instant.ofEpochMilli(now - random.nextLong(TimeUnit.DAYS.toMillis(365))));
+            transactions[i].setTransactionAmount(random.nextInt(2_000_000) / 100.0);
+        }
+
+        // Instants as ISO strings, as Spring Boot configures Jackson
+        ObjectMapper objectMapper = new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        json = objectMapper.writeValueAsBytes(transactions);
+        jsonReader = objectMapper.readerFor(UpdateBalancePayload[].class);
+
+        ByteBuffer buffer = ByteBuffer.allocate(RECORDS * (Integer.BYTES + Short.BYTES
+                + BalanceUpdateRecordFormat.MAX_CARD_NUMBER_BYTES + 2 * Long.BYTES));
+        for (UpdateBalancePayload transaction : transactions) {
+            BalanceUpdateRecordFormat.encode(transaction, buffer);
+        }
+        binary = Arrays.copyOf(buffer.array(), buffer.position());
+
+        reusedTransactions = new UpdateBalancePayload[CHUNK_SIZE];
+        for (int i = 0; i < CHUNK_SIZE; i++) {
+            reusedTransactions[i] = new UpdateBalancePayload();
+        }
+    }
+
+    @Benchmark
+    public UpdateBalancePayload[] json() throws IOException {
+        return jsonReader.readValue(new ByteArrayInputStream(json));
+    }
+
+    @Benchmark
+    public void binary(Blackhole blackhole) throws IOException {
+        BalanceUpdateRecordDecoder decoder =
+                new BalanceUpdateRecordDecoder(Channels.newChannel(new ByteArrayInputStream(binary)));
+        int next = 0;
+        while (decoder.next(reusedTransactions[next]) == BalanceUpdateRecordDecoder.Result.RECORD) {
+            blackhole.consume(reusedTransactions[next]);
+            next = (next + 1) % CHUNK_SIZE;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.shepherdmoney.interviewproject.benchmark;
+
+import com.shepherdmoney.interviewproject.service.BalanceHistoryService;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks deciding whether two instants fall on the same UTC day, which the update path does for every
+ * transaction.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DayComparisonBenchmark {
+
+    private Instant first;
+
+    private Instant second;
+
+    @Setup
+    public void setUp() {
+        second = Instant.now();
+        first = second.minusSeconds(3600);
+    }
+
+    @Benchmark
+    public boolean legacyZonedDateTime() {
+        return LegacyDates.datesAreOnSameDay(first.atZone(ZoneOffset.UTC), second.atZone(ZoneOffset.UTC));
+    }
+
+    @Benchmark
+    public boolean localDate() {
+        return BalanceHistoryService.toDate(first).equals(BalanceHistoryService.toDate(second));
+    }
+}
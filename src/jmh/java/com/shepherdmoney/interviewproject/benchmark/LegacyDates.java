@@ -0,0 +1,17 @@
+package com.shepherdmoney.interviewproject.benchmark;
+
+import java.time.ZonedDateTime;
+
+/**
+ * Day comparison the update path used before balance history dates were stored as UTC calendar days.
+ * Kept only as a benchmark baseline.
+ */
+final class LegacyDates {
+
+    private LegacyDates() {
+    }
+
+    static boolean datesAreOnSameDay(ZonedDateTime date1, ZonedDateTime date2) {
+        return date1.getDayOfYear() == date2.getDayOfYear() && date1.getYear() == date2.getYear();
+    }
+}
@@ -0,0 +1,57 @@
+package com.shepherdmoney.interviewproject.benchmark;
+
+import com.shepherdmoney.interviewproject.model.BalanceHistory;
+import com.shepherdmoney.interviewproject.model.CreditCard;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the per-day gap filling the update path did for one transaction before change points, as a baseline for
+ * BalanceHistoryMergerBenchmark. The work only depends on how many days ago the transaction was, so the transaction is
+ * on the first day of the history.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LegacyGapFillBenchmark {
+
+    // 30 days to 5 years
+    @Param({"30", "365", "1825"})
+    private int historyDays;
+
+    private CreditCard card;
+
+    private Instant transactionTime;
+
+    @Setup
+    public void setUp() {
+        card = new CreditCard();
+        transactionTime = LocalDate.now(ZoneOffset.UTC).minusDays(historyDays - 1).atStartOfDay(ZoneOffset.UTC)
+                .toInstant();
+    }
+
+    @Benchmark
+    public List<BalanceHistory> legacyGapFill() {
+        // Before change points, a transaction created a row for every day between its date and today
+        List<BalanceHistory> balanceHistories = new ArrayList<>();
+        ZonedDateTime currentDateTime = transactionTime.atZone(ZoneOffset.UTC).plusDays(1);
+        ZonedDateTime endDateTime = Instant.now().atZone(ZoneOffset.UTC);
+        while (currentDateTime.isBefore(endDateTime)
+                && !LegacyDates.datesAreOnSameDay(currentDateTime, endDateTime)) {
+            BalanceHistory newInBetweenBalanceHistory = new BalanceHistory();
+            newInBetweenBalanceHistory.setCard(card);
+            newInBetweenBalanceHistory.setBalance(1);
+            newInBetweenBalanceHistory.setDate(currentDateTime.toLocalDate());
+            balanceHistories.add(newInBetweenBalanceHistory);
+            currentDateTime = currentDateTime.plusDays(1);
+        }
+        return balanceHistories;
+    }
+}
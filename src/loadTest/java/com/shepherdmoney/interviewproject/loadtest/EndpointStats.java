@@ -0,0 +1,72 @@
+package com.shepherdmoney.interviewproject.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency histogram and error count of the requests sent to one endpoint. Safe to record from multiple threads.
+ */
+class EndpointStats {
+
+    // Latencies are recorded in microseconds, up to one minute with 3 significant digits
+    private final Histogram latencyMicros = new ConcurrentHistogram(TimeUnit.MINUTES.toMicros(1), 3);
+
+    private final AtomicLong errors = new AtomicLong();
+
+    void record(long latencyNanos, boolean successful) {
+        latencyMicros.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(latencyNanos),
+                latencyMicros.getHighestTrackableValue()));
+        if (!successful) {
+            errors.incrementAndGet();
+        }
+    }
+
+    long requests() {
+        return latencyMicros.getTotalCount();
+    }
+
+    double percentileMillis(double percentile) {
+        return latencyMicros.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    /**
+     * Summarizes the recorded requests for the report.
+     *
+     * @param elapsedSeconds Length of the phase the requests were sent in.
+     */
+    Map<String, Object> toReport(double elapsedSeconds) {
+        Map<String, Object> latencyMillis = new LinkedHashMap<>();
+        latencyMillis.put("mean", latencyMicros.getMean() / 1000.0);
+        latencyMillis.put("p50", percentileMillis(50));
+        latencyMillis.put("p90", percentileMillis(90));
+        latencyMillis.put("p99", percentileMillis(99));
+        latencyMillis.put("p999", percentileMillis(99.9));
+        latencyMillis.put("max", latencyMicros.getMaxValue() / 1000.0);
+
+        // Percentile distribution with 5 steps per halving of the remaining percentile range
+        List<Map<String, Object>> histogram = new ArrayList<>();
+        for (HistogramIterationValue value : latencyMicros.percentiles(5)) {
+            Map<String, Object> bucket = new LinkedHashMap<>();
+            bucket.put("percentile", value.getPercentileLevelIteratedTo());
+            bucket.put("latencyMillis", value.getValueIteratedTo() / 1000.0);
+            bucket.put("count", value.getTotalCountToThisValue());
+            histogram.add(bucket);
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("requests", requests());
+        report.put("errors", errors.get());
+        report.put("throughputPerSecond", requests() / elapsedSeconds);
+        report.put("latencyMillis", latencyMillis);
+        report.put("histogram", histogram);
+        return report;
+    }
+}
@@ -0,0 +1,270 @@
+package com.shepherdmoney.interviewproject.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.shepherdmoney.interviewproject.InterviewProjectApplication;
+import com.shepherdmoney.interviewproject.model.CreditCard;
+import com.shepherdmoney.interviewproject.model.User;
+import com.shepherdmoney.interviewproject.repository.CreditCardRepository;
+import com.shepherdmoney.interviewproject.repository.UserRepository;
+import com.shepherdmoney.interviewproject.service.BalanceHistoryService;
+import com.shepherdmoney.interviewproject.vo.request.UpdateBalancePayload;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end HTTP load test. Starts the application against an in-memory H2 database, seeds users, cards and
+ * balance history, then sends a mixed workload at a fixed rate and writes latency and throughput per endpoint to a
+ * JSON report.
+ * <p>
+ * Requests are sent on a fixed schedule whether or not earlier ones have completed, and latency is measured from the
+ * time a request was scheduled, so a slow server shows up as latency rather than as a lower request rate.
+ */
+public class LoadTest {
+
+    /**
+     * Endpoints of the workload and the share of requests each gets.
+     */
+    enum Endpoint {
+        CREATE_USER(5),
+        ADD_CARD(5),
+        ALL_CARDS(30),
+        CARD_OWNER(30),
+        UPDATE_BALANCE(30);
+
+        private final int weight;
+
+        Endpoint(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    // Number of seeded transactions applied in one call
+    private static final int SEED_BATCH_SIZE = 10_000;
+
+    private final LoadTestConfig config;
+
+    private final URI baseUri;
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+
+    // Requests are built on the dispatching thread only, so the workload is the same for the same seed
+    private final Random random;
+
+    private final List<Integer> userIds;
+
+    private final List<String> cardNumbers;
+
+    private long nextCardNumber;
+
+    private LoadTest(LoadTestConfig config, URI baseUri, List<Integer> userIds, List<String> cardNumbers) {
+        this.config = config;
+        this.baseUri = baseUri;
+        this.random = new Random(config.seed());
+        this.userIds = userIds;
+        this.cardNumbers = cardNumbers;
+        this.nextCardNumber = cardNumbers.size();
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestConfig config = LoadTestConfig.fromSystemProperties();
+        List<String> appArgs = new ArrayList<>(List.of(
+                "--server.port=0",
+                "--spring.datasource.url=jdbc:h2:mem:loadtest;DB_CLOSE_DELAY=-1",
+                "--spring.h2.console.enabled=false",
+                "--logging.level.root=WARN"));
+        appArgs.addAll(config.appArgs());
+
+        try (ConfigurableApplicationContext context =
+                     SpringApplication.run(InterviewProjectApplication.class, appArgs.toArray(String[]::new))) {
+            int port = context.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+            Random seedRandom = new Random(config.seed());
+            List<Integer> userIds = new ArrayList<>();
+            List<String> cardNumbers = new ArrayList<>();
+            seed(context, config, seedRandom, userIds, cardNumbers);
+
+            LoadTest loadTest = new LoadTest(config, URI.create("http://localhost:" + port), userIds, cardNumbers);
+            System.out.printf("Warming up for %d s%n", config.warmupSeconds());
+            loadTest.runPhase(config.warmupSeconds());
+            System.out.printf("Measuring for %d s at %d requests/s%n", config.durationSeconds(), config.rate());
+            Instant start = Instant.now();
+            Map<Endpoint, EndpointStats> stats = loadTest.runPhase(config.durationSeconds());
+            double elapsedSeconds = Duration.between(start, Instant.now()).toMillis() / 1000.0;
+
+            writeReport(config, stats, elapsedSeconds);
+        }
+    }
+
+    /**
+     * Seeds users with cards, each card having a balance change on each of the last historyDays days.
+     */
+    private static void seed(ConfigurableApplicationContext context, LoadTestConfig config, Random seedRandom,
+                             List<Integer> userIds, List<String> cardNumbers) {
+        UserRepository userRepository = context.getBean(UserRepository.class);
+        CreditCardRepository creditCardRepository = context.getBean(CreditCardRepository.class);
+        BalanceHistoryService balanceHistoryService = context.getBean(BalanceHistoryService.class);
+
+        System.out.printf("Seeding %d users with %d cards each and %d days of history%n",
+                config.users(), config.cardsPerUser(), config.historyDays());
+        List<UpdateBalancePayload> transactions = new ArrayList<>(SEED_BATCH_SIZE);
+        Instant now = Instant.now();
+        for (int userIndex = 0; userIndex < config.users(); userIndex++) {
+            User user = new User();
+            user.setName("Load test user " + userIndex);
+            user.setEmail("user" + userIndex + "@example.com");
+            user = userRepository.save(user);
+            userIds.add(user.getId());
+
+            List<CreditCard> cards = new ArrayList<>();
+            for (int cardIndex = 0; cardIndex < config.cardsPerUser(); cardIndex++) {
+                CreditCard card = new CreditCard();
+                card.setIssuanceBank("Load Test Bank");
+                card.setNumber(cardNumber(cardNumbers.size()));
+                card.setOwner(user);
+                cards.add(card);
+                cardNumbers.add(card.getNumber());
+            }
+            creditCardRepository.saveAll(cards);
+
+            for (CreditCard card : cards) {
+                for (int day = config.historyDays() - 1; day >= 0; day--) {
+                    UpdateBalancePayload transaction = new UpdateBalancePayload();
+                    transaction.setCreditCardNumber(card.getNumber());
+                    transaction.setTransactionTime(now.minus(day, ChronoUnit.DAYS));
+                    transaction.setTransactionAmount(seedRandom.nextInt(20_000) / 100.0);
+                    transactions.add(transaction);
+                    if (transactions.size() == SEED_BATCH_SIZE) {
+                        balanceHistoryService.applyValidTransactions(transactions);
+                        transactions.clear();
+                    }
+                }
+            }
+        }
+        balanceHistoryService.applyValidTransactions(transactions);
+    }
+
+    /**
+     * Sends requests at the configured rate for the given number of seconds and waits for all of them to complete.
+     *
+     * @return Statistics of the requests sent to each endpoint.
+     */
+    private Map<Endpoint, EndpointStats> runPhase(int seconds) throws InterruptedException {
+        Map<Endpoint, EndpointStats> stats = new EnumMap<>(Endpoint.class);
+        for (Endpoint endpoint : Endpoint.values()) {
+            stats.put(endpoint, new EndpointStats());
+        }
+
+        long requestCount = (long) seconds * config.rate();
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / config.rate();
+        CountDownLatch completed = new CountDownLatch((int) requestCount);
+        long start = System.nanoTime();
+        for (long i = 0; i < requestCount; i++) {
+            long scheduledStart = start + i * intervalNanos;
+            long wait = scheduledStart - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            Endpoint endpoint = pickEndpoint();
+            httpClient.sendAsync(buildRequest(endpoint), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        stats.get(endpoint).record(System.nanoTime() - scheduledStart,
+                                error == null && response.statusCode() < 400);
+                        completed.countDown();
+                    });
+        }
+        completed.await();
+        return stats;
+    }
+
+    private Endpoint pickEndpoint() {
+        int totalWeight = Arrays.stream(Endpoint.values()).mapToInt(endpoint -> endpoint.weight).sum();
+        int choice = random.nextInt(totalWeight);
+        for (Endpoint endpoint : Endpoint.values()) {
+            choice -= endpoint.weight;
+            if (choice < 0) {
+                return endpoint;
+            }
+        }
+        throw new IllegalStateException("Weights do not add up");
+    }
+
+    private HttpRequest buildRequest(Endpoint endpoint) {
+        return switch (endpoint) {
+            case CREATE_USER -> jsonRequest("/user")
+                    .PUT(HttpRequest.BodyPublishers.ofString(
+                            "{\"name\": \"New user\", \"email\": \"new@example.com\"}"))
+                    .build();
+            case ADD_CARD -> jsonRequest("/credit-card")
+                    .POST(HttpRequest.BodyPublishers.ofString(String.format(
+                            "{\"userId\": %d, \"cardIssuanceBank\": \"Load Test Bank\", \"cardNumber\": \"%s\"}",
+                            randomElement(userIds), cardNumber(nextCardNumber++))))
+                    .build();
+            case ALL_CARDS -> HttpRequest.newBuilder(baseUri.resolve(
+                    "/credit-card:all?userId=" + randomElement(userIds))).GET().build();
+            case CARD_OWNER -> HttpRequest.newBuilder(baseUri.resolve(
+                    "/credit-card:user-id?creditCardNumber=" + randomElement(cardNumbers))).GET().build();
+            case UPDATE_BALANCE -> jsonRequest("/credit-card:update-balance")
+                    .POST(HttpRequest.BodyPublishers.ofString(String.format(
+                            "[{\"creditCardNumber\": \"%s\", \"transactionTime\": \"%s\", \"transactionAmount\": %d}]",
+                            randomElement(cardNumbers),
+                            Instant.now().minus(random.nextInt(config.historyDays() + 1), ChronoUnit.DAYS),
+                            random.nextInt(200) - 100)))
+                    .build();
+        };
+    }
+
+    private HttpRequest.Builder jsonRequest(String path) {
+        return HttpRequest.newBuilder(baseUri.resolve(path)).header("Content-Type", "application/json");
+    }
+
+    private <T> T randomElement(List<T> list) {
+        return list.get(random.nextInt(list.size()));
+    }
+
+    private static String cardNumber(long index) {
+        return String.format("4%015d", index);
+    }
+
+    private static void writeReport(LoadTestConfig config, Map<Endpoint, EndpointStats> stats, double elapsedSeconds)
+            throws IOException {
+        Map<String, Object> endpoints = new LinkedHashMap<>();
+        System.out.printf("%-15s %10s %10s %10s %10s %10s%n", "endpoint", "requests", "req/s", "p50 ms", "p99 ms",
+                "p99.9 ms");
+        for (Map.Entry<Endpoint, EndpointStats> entry : stats.entrySet()) {
+            EndpointStats endpointStats = entry.getValue();
+            endpoints.put(entry.getKey().name(), endpointStats.toReport(elapsedSeconds));
+            System.out.printf("%-15s %10d %10.1f %10.2f %10.2f %10.2f%n", entry.getKey(), endpointStats.requests(),
+                    endpointStats.requests() / elapsedSeconds, endpointStats.percentileMillis(50),
+                    endpointStats.percentileMillis(99), endpointStats.percentileMillis(99.9));
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("config", config);
+        report.put("elapsedSeconds", elapsedSeconds);
+        report.put("endpoints", endpoints);
+
+        Path reportPath = Path.of(config.report());
+        Files.createDirectories(reportPath.toAbsolutePath().getParent());
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(reportPath.toFile(), report);
+        System.out.println("Report written to " + reportPath.toAbsolutePath());
+    }
+}
@@ -0,0 +1,35 @@
+package com.shepherdmoney.interviewproject.loadtest;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Options of a load test run, read from system properties prefixed with "loadTest.".
+ *
+ * @param users           Number of users to seed.
+ * @param cardsPerUser    Number of credit cards to seed per user.
+ * @param historyDays     Number of past days with a balance change to seed per card.
+ * @param rate            Target number of requests per second.
+ * @param warmupSeconds   Length of the unmeasured warmup phase.
+ * @param durationSeconds Length of the measured phase.
+ * @param seed            Seed of the random choices of seeded data and workload, so runs are reproducible.
+ * @param appArgs         Extra arguments passed to the application, separated by spaces.
+ * @param report          Path of the JSON report to write.
+ */
+record LoadTestConfig(int users, int cardsPerUser, int historyDays, int rate, int warmupSeconds,
+                      int durationSeconds, long seed, List<String> appArgs, String report) {
+
+    static LoadTestConfig fromSystemProperties() {
+        String appArgs = System.getProperty("loadTest.appArgs", "").trim();
+        return new LoadTestConfig(
+                Integer.getInteger("loadTest.users", 100),
+                Integer.getInteger("loadTest.cardsPerUser", 5),
+                Integer.getInteger("loadTest.historyDays", 365),
+                Integer.getInteger("loadTest.rate", 200),
+                Integer.getInteger("loadTest.warmupSeconds", 10),
+                Integer.getInteger("loadTest.durationSeconds", 60),
+                Long.getLong("loadTest.seed", 42),
+                appArgs.isEmpty() ? List.of() : Arrays.asList(appArgs.split("\\s+")),
+                System.getProperty("loadTest.report", "load-test-report.json"));
+    }
+}
@@ -0,0 +1,165 @@
+package com.shepherdmoney.interviewproject.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup benchmark. Starts the application in a new JVM repeatedly and measures the time from launching the JVM to
+ * the first successful request, once per variant:
+ * <ul>
+ *     <li>DEFAULT: the default profile, which generates the schema with Hibernate.</li>
+ *     <li>PROD: the prod profile, without unused auto-configuration and with Flyway migrations.</li>
+ *     <li>PROD_CDS: the prod profile with the class data sharing archive of the cdsArchive task.</li>
+ * </ul>
+ * All variants run the same application jar against an H2 file database of their own, which is kept between runs,
+ * as it would be between restarts of a pod.
+ */
+public class StartupBenchmark {
+
+    enum Variant {
+        DEFAULT,
+        PROD,
+        PROD_CDS
+    }
+
+    // Time between requests while waiting for the application to come up
+    private static final long POLL_MILLIS = 10;
+
+    private final StartupBenchmarkConfig config;
+
+    private final Path databaseDirectory;
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(1))
+            .build();
+
+    private StartupBenchmark(StartupBenchmarkConfig config, Path databaseDirectory) {
+        this.config = config;
+        this.databaseDirectory = databaseDirectory;
+    }
+
+    public static void main(String[] args) throws Exception {
+        StartupBenchmarkConfig config = StartupBenchmarkConfig.fromSystemProperties();
+        StartupBenchmark benchmark = new StartupBenchmark(config, Files.createTempDirectory("startup-benchmark"));
+
+        Map<Variant, List<Double>> startupMillis = new EnumMap<>(Variant.class);
+        // Variants take turns, so that a change in machine load affects all of them alike
+        for (int run = 0; run < config.runs(); run++) {
+            for (Variant variant : Variant.values()) {
+                double millis = benchmark.measureStartup(variant);
+                System.out.printf("%-10s run %d: %.0f ms%n", variant, run + 1, millis);
+                startupMillis.computeIfAbsent(variant, key -> new ArrayList<>()).add(millis);
+            }
+        }
+        writeReport(config, startupMillis);
+    }
+
+    /**
+     * Starts the application, waits for its first successful request and stops it.
+     *
+     * @return Milliseconds from launching the JVM to the first successful response.
+     */
+    private double measureStartup(Variant variant) throws IOException, InterruptedException {
+        int port = findFreePort();
+        ProcessBuilder processBuilder = new ProcessBuilder(command(variant, port))
+                .directory(Path.of(config.cdsDirectory()).toFile())
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD);
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/actuator/health"))
+                .timeout(Duration.ofSeconds(1))
+                .GET()
+                .build();
+
+        long start = System.nanoTime();
+        Process process = processBuilder.start();
+        try {
+            long deadline = start + TimeUnit.SECONDS.toNanos(config.timeoutSeconds());
+            while (true) {
+                if (!process.isAlive()) {
+                    throw new IllegalStateException(variant + " exited with " + process.exitValue());
+                }
+                if (System.nanoTime() > deadline) {
+                    throw new IllegalStateException(variant + " did not answer within "
+                            + config.timeoutSeconds() + " s");
+                }
+                try {
+                    if (httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                        return (System.nanoTime() - start) / 1_000_000.0;
+                    }
+                } catch (ConnectException e) {
+                    // Not listening yet
+                }
+                Thread.sleep(POLL_MILLIS);
+            }
+        } finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+        }
+    }
+
+    private List<String> command(Variant variant, int port) {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        if (variant == Variant.PROD_CDS) {
+            command.add("-XX:SharedArchiveFile=application.jsa");
+        }
+        command.addAll(List.of("-jar", "application.jar",
+                "--server.port=" + port,
+                "--spring.datasource.url=jdbc:h2:file:" + databaseDirectory.resolve(variant.name().toLowerCase()),
+                "--logging.level.root=WARN"));
+        if (variant != Variant.DEFAULT) {
+            command.add("--spring.profiles.active=prod");
+        }
+        return command;
+    }
+
+    private static int findFreePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void writeReport(StartupBenchmarkConfig config, Map<Variant, List<Double>> startupMillis)
+            throws IOException {
+        Map<String, Object> variants = new LinkedHashMap<>();
+        System.out.printf("%-10s %10s %10s %10s%n", "variant", "min ms", "median ms", "max ms");
+        for (Map.Entry<Variant, List<Double>> entry : startupMillis.entrySet()) {
+            List<Double> sorted = entry.getValue().stream().sorted().toList();
+            double median = sorted.get(sorted.size() / 2);
+            System.out.printf("%-10s %10.0f %10.0f %10.0f%n", entry.getKey(), sorted.get(0), median,
+                    sorted.get(sorted.size() - 1));
+
+            Map<String, Object> variantReport = new LinkedHashMap<>();
+            variantReport.put("minMillis", sorted.get(0));
+            variantReport.put("medianMillis", median);
+            variantReport.put("maxMillis", sorted.get(sorted.size() - 1));
+            variantReport.put("runMillis", entry.getValue());
+            variants.put(entry.getKey().name(), variantReport);
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("config", config);
+        report.put("variants", variants);
+
+        Path reportPath = Path.of(config.report());
+        Files.createDirectories(reportPath.toAbsolutePath().getParent());
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(reportPath.toFile(), report);
+        System.out.println("Report written to " + reportPath.toAbsolutePath());
+    }
+}
@@ -0,0 +1,21 @@
+package com.shepherdmoney.interviewproject.loadtest;
+
+/**
+ * Options of a startup benchmark run, read from system properties prefixed with "startupBenchmark.".
+ *
+ * @param runs           Number of times the application is started per variant.
+ * @param timeoutSeconds Longest time to wait for the first successful request of a run.
+ * @param cdsDirectory   Directory with the application jar, its libraries and the class data sharing archive, as
+ *                       created by the cdsArchive task.
+ * @param report         Path of the JSON report to write.
+ */
+record StartupBenchmarkConfig(int runs, int timeoutSeconds, String cdsDirectory, String report) {
+
+    static StartupBenchmarkConfig fromSystemProperties() {
+        return new StartupBenchmarkConfig(
+                Integer.getInteger("startupBenchmark.runs", 5),
+                Integer.getInteger("startupBenchmark.timeoutSeconds", 120),
+                System.getProperty("startupBenchmark.cdsDirectory", "build/cds"),
+                System.getProperty("startupBenchmark.report", "startup-report.json"));
+    }
+}
@@ -0,0 +1,41 @@
+package com.shepherdmoney.interviewproject.config;
+
+import com.shepherdmoney.interviewproject.sharding.ShardRoutingDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+
+/**
+ * With spring.threads.virtual.enabled=true, Spring Boot serves every request on its own virtual thread, and
+ * repository calls run on the request thread, so they block virtual threads only. The number of concurrent requests
+ * is then no longer capped by a thread pool, so checkouts from the connection pool are bounded by a semaphore
+ * instead.
+ * <p>
+ * With sharding, the routing data source is left alone and ShardingConfiguration bounds the pool of each shard, so
+ * that a busy shard does not use up the permits of the others.
+ */
+@Configuration
+@ConditionalOnProperty("spring.threads.virtual.enabled")
+public class VirtualThreadConfiguration {
+
+    @Bean
+    public static BeanPostProcessor boundedDataSourcePostProcessor(
+            @Value("${virtual-threads.max-connections:${spring.datasource.hikari.maximum-pool-size:10}}")
+            int maxConnections,
+            @Value("${virtual-threads.connection-timeout-ms:30000}") long connectionTimeoutMillis) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource dataSource && !(bean instanceof BoundedDataSource)
+                        && !(bean instanceof ShardRoutingDataSource)) {
+                    return new BoundedDataSource(dataSource, maxConnections, connectionTimeoutMillis);
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -0,0 +1,44 @@
+package com.shepherdmoney.interviewproject.controller;
+
+import com.shepherdmoney.interviewproject.service.BalanceHistoryReconciler;
+import com.shepherdmoney.interviewproject.vo.response.ReconciliationReport;
+import io.micrometer.core.annotation.Timed;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+public class BalanceHistoryController {
+
+    @Autowired
+    private BalanceHistoryReconciler balanceHistoryReconciler;
+
+    /**
+     * Starts checking and repairing the balance history of all cards in the background, resuming from the last
+     * checkpoint unless dryRun is set.
+     * @param dryRun Whether to only report problems without repairing them.
+     * @param compact Whether to delete change points with the same balance as the one before them.
+     * @return 202 response with the report of the started run, 409 if a run is in progress.
+     */
+    @Timed("balance_history.reconcile")
+    @PostMapping("/balance-history:reconcile")
+    public ResponseEntity<ReconciliationReport> startReconciliation(
+            @RequestParam(defaultValue = "true") boolean dryRun,
+            @RequestParam(defaultValue = "false") boolean compact) {
+        if (!balanceHistoryReconciler.start(dryRun, compact)) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(balanceHistoryReconciler.getReport());
+        }
+        return ResponseEntity.accepted().body(balanceHistoryReconciler.getReport());
+    }
+
+    /**
+     * Gets the progress and findings of the current or last reconciliation run.
+     * @return 200 response with the report.
+     */
+    @Timed("balance_history.reconcile.report")
+    @GetMapping("/balance-history:reconcile")
+    public ResponseEntity<ReconciliationReport> getReconciliationReport() {
+        return ResponseEntity.ok(balanceHistoryReconciler.getReport());
+    }
+}
@@ -1,261 +1,584 @@
 package com.shepherdmoney.interviewproject.controller;
 
-import com.shepherdmoney.interviewproject.model.BalanceHistory;
-import com.shepherdmoney.interviewproject.model.CreditCard;
-import com.shepherdmoney.interviewproject.model.User;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.shepherdmoney.interviewproject.journal.BalanceJournal;
+import com.shepherdmoney.interviewproject.journal.BalanceJournalApplier;
+import com.shepherdmoney.interviewproject.repository.CardOwnership;
 import com.shepherdmoney.interviewproject.repository.CreditCardRepository;
-import com.shepherdmoney.interviewproject.repository.UserRepository;
+import com.shepherdmoney.interviewproject.service.BalanceHistoryService;
+import com.shepherdmoney.interviewproject.service.CardOwnershipCache;
+import com.shepherdmoney.interviewproject.service.CardWriteLanes;
+import com.shepherdmoney.interviewproject.service.CreditCardService;
+import com.shepherdmoney.interviewproject.service.EntityVersionCache;
+import com.shepherdmoney.interviewproject.service.InvalidTransactionException;
+import com.shepherdmoney.interviewproject.sharding.ShardRouter;
 import com.shepherdmoney.interviewproject.vo.request.AddCreditCardToUserPayload;
+import com.shepherdmoney.interviewproject.vo.request.BalanceGranularity;
 import com.shepherdmoney.interviewproject.vo.request.UpdateBalancePayload;
+import com.shepherdmoney.interviewproject.vo.response.BalanceHistoryView;
+import com.shepherdmoney.interviewproject.vo.response.BalanceJournalStatus;
+import com.shepherdmoney.interviewproject.vo.response.BalanceUpdateResult;
 import com.shepherdmoney.interviewproject.vo.response.CreditCardView;
+import com.shepherdmoney.interviewproject.vo.response.MonthlyBalanceView;
+import com.shepherdmoney.interviewproject.wire.BalanceUpdateRecordDecoder;
+import com.shepherdmoney.interviewproject.wire.BalanceUpdateRecordFormat;
+import io.micrometer.core.annotation.Timed;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-
-import java.time.Instant;
-import java.time.ZoneOffset;
-import java.time.ZonedDateTime;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.YearMonth;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
+import java.util.OptionalLong;
 
 
 @RestController
 public class CreditCardController {
+    // Largest page of cards read at once
+    private static final int MAX_PAGE_SIZE = 1000;
+    // Page size when afterCardNumber is given without a limit
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final String NDJSON_MEDIA_TYPE = "application/x-ndjson";
+    // Number of newline-delimited transactions applied in one database transaction
+    private static final int NDJSON_CHUNK_SIZE = 1000;
+
     @Autowired
     private CreditCardRepository creditCardRepository;
     @Autowired
-    private UserRepository userRepository;
-
+    private BalanceHistoryService balanceHistoryService;
+    @Autowired
+    private CardOwnershipCache cardOwnershipCache;
+    @Autowired
+    private CardWriteLanes cardWriteLanes;
+    @Autowired
+    private CreditCardService creditCardService;
+    @Autowired
+    private EntityVersionCache entityVersionCache;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private ShardRouter shardRouter;
+    // Only present when balance-journal.enabled is set
+    @Autowired(required = false)
+    private BalanceJournal balanceJournal;
+    @Autowired(required = false)
+    private BalanceJournalApplier balanceJournalApplier;
+
+    @Timed("credit_card.add")
     @PostMapping("/credit-card")
     public ResponseEntity<Integer> addCreditCardToUser(@RequestBody AddCreditCardToUserPayload payload) {
-        Optional<User> cardOwnerOptional = userRepository.findById(payload.getUserId());
+        // Conflict if the user the new card will be associated with does not exist, or the card number is taken
+        Optional<Integer> cardId = creditCardService.addCreditCard(payload.getUserId(),
+                payload.getCardIssuanceBank(), payload.getCardNumber());
+        return cardId.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.status(HttpStatus.CONFLICT).build());
+    }
 
-        // Verify that the user the new card will be associated with exists
-        if (cardOwnerOptional.isEmpty()) {
-            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+    /**
+     * Gets the credit cards of a user in card number order, all of them, or one page if afterCardNumber or limit is
+     * given. A full page links to the next one in a Link header with rel="next", which passes the number of the last
+     * card of the page as afterCardNumber.
+     * @param userId Id of the user.
+     * @param afterCardNumber Only cards with a number after this one are returned. Empty for the first page.
+     * @param limit Maximum number of cards to return, at most MAX_PAGE_SIZE. DEFAULT_PAGE_SIZE if only
+     * afterCardNumber is given.
+     * @return 200 response with the cards and the user's version as ETag, 304 if the ETag in If-None-Match is
+     * current, 400 if limit is out of range, 404 if the user does not exist.
+     */
+    @Timed("credit_card.all")
+    @GetMapping("/credit-card:all")
+    public ResponseEntity<List<CreditCardView>> getAllCardOfUser(
+            @RequestParam int userId,
+            @RequestParam(defaultValue = "") String afterCardNumber,
+            @RequestParam(required = false) Integer limit,
+            WebRequest webRequest) {
+        boolean paged = limit != null || !afterCardNumber.isEmpty();
+        int pageSize = limit != null ? limit : DEFAULT_PAGE_SIZE;
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().build();
         }
 
-        // Already verified user is not empty, so should not throw
-        User cardOwner = cardOwnerOptional.get();
+        // The version is read before the cards, so a card added in between makes the response newer than its ETag,
+        // never older
+        OptionalLong userVersion = entityVersionCache.getUserVersion(userId);
+        if (userVersion.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (webRequest.checkNotModified(etag(userId, userVersion.getAsLong()))) {
+            return null;
+        }
+        if (!paged) {
+            return ResponseEntity.ok(findAllCardsOfUser(userId));
+        }
 
-        CreditCard newCreditCard = new CreditCard();
-        newCreditCard.setIssuanceBank(payload.getCardIssuanceBank());
-        newCreditCard.setNumber(payload.getCardNumber());
-        newCreditCard.setOwner(cardOwner);
-        populateTodayBalanceIfNotExist(newCreditCard);
+        List<CreditCardView> cards = findCardsOfUser(userId, afterCardNumber, pageSize);
+        if (cards.size() < pageSize) {
+            return ResponseEntity.ok(cards);
+        }
+        // A full page may be followed by more cards
+        String nextPage = ServletUriComponentsBuilder.fromCurrentContextPath()
+                .path("/credit-card:all")
+                .query("userId={userId}&afterCardNumber={afterCardNumber}&limit={limit}")
+                .encode()
+                .buildAndExpand(userId, cards.get(cards.size() - 1).getNumber(), pageSize)
+                .toUriString();
+        return ResponseEntity.ok().header(HttpHeaders.LINK, "<" + nextPage + ">; rel=\"next\"").body(cards);
+    }
 
-        cardOwner.getCreditCardList().add(newCreditCard);
+    /**
+     * Streams all credit cards of a user as a JSON array, in card number order.
+     * Cards are read and written one page at a time, so memory use does not grow with the number of cards.
+     * @param userId Id of the user.
+     * @return 200 response streaming the cards with the user's version as ETag, 304 if the ETag in If-None-Match is
+     * current, 404 if the user does not exist.
+     */
+    @Timed("credit_card.all.stream")
+    @GetMapping(value = "/credit-card:all", params = "stream=true")
+    public ResponseEntity<StreamingResponseBody> streamAllCardOfUser(@RequestParam int userId,
+                                                                     WebRequest webRequest) {
+        OptionalLong userVersion = entityVersionCache.getUserVersion(userId);
+        if (userVersion.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (webRequest.checkNotModified(etag(userId, userVersion.getAsLong()))) {
+            return null;
+        }
 
-        CreditCard savedCreditCard = creditCardRepository.save(newCreditCard);
-        userRepository.save(cardOwner);
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                generator.writeStartArray();
+                List<CreditCardView> page;
+                String afterCardNumber = "";
+                do {
+                    page = findCardsOfUser(userId, afterCardNumber, MAX_PAGE_SIZE);
+                    for (CreditCardView card : page) {
+                        generator.writeObject(card);
+                    }
+                    generator.flush();
+                    if (!page.isEmpty()) {
+                        afterCardNumber = page.get(page.size() - 1).getNumber();
+                    }
+                } while (page.size() == MAX_PAGE_SIZE);
+                generator.writeEndArray();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
 
-        return ResponseEntity.ok(savedCreditCard.getId());
+    @Timed("credit_card.user_id")
+    @GetMapping("/credit-card:user-id")
+    public ResponseEntity<Integer> getUserIdForCreditCard(@RequestParam String creditCardNumber,
+                                                          WebRequest webRequest) {
+        // Card numbers are unique, so the only failure is that no card has that number
+        Optional<CardOwnership> card = cardOwnershipCache.get(creditCardNumber);
+        if (card.isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
+        // A card never changes owner, so the card id alone identifies the response
+        if (webRequest.checkNotModified(String.valueOf(card.get().cardId()))) {
+            return null;
+        }
+        return ResponseEntity.ok(card.get().ownerId());
     }
 
-    @GetMapping("/credit-card:all")
-    public ResponseEntity<List<CreditCardView>> getAllCardOfUser(@RequestParam int userId) {
-        Optional<User> optionalUser = userRepository.findById(userId);
+    /**
+     * Gets the balance series of a credit card between two dates, downsampled to one point per day, week or month.
+     * Each point is the balance at the end of its period. To get the next page, pass the day after the date of the
+     * last point of this page as startDate.
+     * @param creditCardNumber Number of the card.
+     * @param startDate First date to include.
+     * @param endDate Last date to include.
+     * @param granularity Period each point covers: DAY, WEEK or MONTH.
+     * @param limit Maximum number of points to return, at most MAX_PAGE_SIZE.
+     * @return 200 response with the points in date order and the card's version as ETag, 304 if the ETag in
+     * If-None-Match is current, 400 if the range or limit is invalid, 404 if the card does not exist.
+     */
+    @Timed("credit_card.balance_history")
+    @GetMapping("/credit-card:balance-history")
+    public ResponseEntity<List<BalanceHistoryView>> getBalanceHistory(
+            @RequestParam String creditCardNumber,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+            @RequestParam(defaultValue = "DAY") BalanceGranularity granularity,
+            @RequestParam(defaultValue = "100") int limit,
+            WebRequest webRequest) {
+        if (startDate.isAfter(endDate) || limit < 1 || limit > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
 
-        if (optionalUser.isEmpty()) {
+        Optional<CardOwnership> card = cardOwnershipCache.get(creditCardNumber);
+        OptionalLong cardVersion = card.isPresent()
+                ? entityVersionCache.getCardVersion(card.get().cardId())
+                : OptionalLong.empty();
+        if (cardVersion.isEmpty()) {
             return ResponseEntity.notFound().build();
         }
-
-        User user = optionalUser.get();
-        return ResponseEntity.ok(user.getCreditCardList()
-                .stream().map(
-                        card -> new CreditCardView(card.getIssuanceBank(), card.getNumber())
-                ).toList());
+        if (webRequest.checkNotModified(etag(card.get().cardId(), cardVersion.getAsLong()))) {
+            return null;
+        }
+        return ResponseEntity.ok(balanceHistoryService.getBalanceSeries(card.get().cardId(), startDate, endDate,
+                granularity, limit));
     }
 
-    @GetMapping("/credit-card:user-id")
-    public ResponseEntity<Integer> getUserIdForCreditCard(@RequestParam String creditCardNumber) {
-        List<CreditCard> cardsWithNumber = creditCardRepository.findByNumber(creditCardNumber);
-
-        // 0 or multiple users with that card, which is ambiguous
-        if (cardsWithNumber.size() != 1) {
+    /**
+     * Gets the minimum, maximum, average and end balance of a credit card for each month in a range, read from the
+     * monthly rollups rather than the daily balance history. The current month covers the days up to today, and
+     * later months are left out.
+     * @param creditCardNumber Number of the card.
+     * @param startMonth First month to include, as yyyy-MM.
+     * @param endMonth Last month to include, as yyyy-MM.
+     * @return 200 response with the months in order, 400 if the range is invalid or spans more than MAX_PAGE_SIZE
+     * months, 404 if the card does not exist.
+     */
+    @Timed("credit_card.monthly_balances")
+    @GetMapping("/credit-card:monthly-balances")
+    public ResponseEntity<List<MonthlyBalanceView>> getMonthlyBalances(
+            @RequestParam String creditCardNumber,
+            @RequestParam YearMonth startMonth,
+            @RequestParam YearMonth endMonth) {
+        if (startMonth.isAfter(endMonth) || startMonth.plusMonths(MAX_PAGE_SIZE).isBefore(endMonth)) {
             return ResponseEntity.badRequest().build();
-        } else {
-            CreditCard firstMatchingCard = cardsWithNumber.get(0);
-            User cardOwner = firstMatchingCard.getOwner();
-            return ResponseEntity.ok(cardOwner.getId());
         }
+
+        Optional<CardOwnership> card = cardOwnershipCache.get(creditCardNumber);
+        if (card.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(balanceHistoryService.getMonthlyBalances(card.get().cardId(), startMonth, endMonth));
+    }
+
+    /**
+     * Gets the balance of a credit card at the end of a date.
+     * @param creditCardNumber Number of the card.
+     * @param date Date to get the balance on. Defaults to today in UTC.
+     * @return 200 response with the balance and the card's version as ETag, 304 if the ETag in If-None-Match is
+     * current, 404 if the card does not exist.
+     */
+    @Timed("credit_card.balance")
+    @GetMapping("/credit-card:balance")
+    public ResponseEntity<Double> getBalance(
+            @RequestParam String creditCardNumber,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+            WebRequest webRequest) {
+        Optional<CardOwnership> card = cardOwnershipCache.get(creditCardNumber);
+        OptionalLong cardVersion = card.isPresent()
+                ? entityVersionCache.getCardVersion(card.get().cardId())
+                : OptionalLong.empty();
+        if (cardVersion.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        int cardId = card.get().cardId();
+        if (webRequest.checkNotModified(etag(cardId, cardVersion.getAsLong()))) {
+            return null;
+        }
+        return ResponseEntity.ok(date != null
+                ? balanceHistoryService.getBalanceOn(cardId, date)
+                : balanceHistoryService.getCurrentBalance(cardId));
     }
 
+    /**
+     * Applies a batch of transactions to the balance histories of their cards.
+     * If any transaction is invalid, none are applied. Updates are serialized per card by the card write lanes, and
+     * each lane commits its part separately, so a valid batch is not atomic across cards: if the update of a card
+     * fails or the card is deleted meanwhile, only the transactions of that card are not applied.
+     * With the balance journal enabled, valid transactions are appended to the journal instead and applied in the
+     * background.
+     * @param payload Transactions to apply.
+     * @return 200 response if all transactions were applied, 202 with the journal sequence number of the last one if
+     * they were journaled, 207 with one line per transaction that was not applied, giving its index in the batch and
+     * the reason, if the others were applied, 400 with the reason if a transaction is invalid.
+     */
+    @Timed("credit_card.update_balance")
     @PostMapping("/credit-card:update-balance")
     public ResponseEntity<String> updateCreditCardBalance(@RequestBody UpdateBalancePayload[] payload) {
-        for (UpdateBalancePayload transaction : payload) {
-            String numberOfCardToUpdate = transaction.getCreditCardNumber();
-            List<CreditCard> cardsWithNumber = creditCardRepository.findByNumber(numberOfCardToUpdate);
-            // No cards with given card number or ambiguous case of multiple cards with given card number
-            if (cardsWithNumber.size() != 1) {
-                return ResponseEntity.badRequest().build();
+        if (balanceJournal != null) {
+            List<UpdateBalancePayload> transactions = Arrays.asList(payload);
+            for (String rejection : balanceHistoryService.findRejections(transactions)) {
+                if (rejection != null) {
+                    return ResponseEntity.badRequest().body(rejection);
+                }
             }
-            CreditCard cardToUpdate = cardsWithNumber.get(0);
+            return ResponseEntity.accepted().body(String.valueOf(balanceJournal.append(transactions)));
+        }
 
-            populateTodayBalanceIfNotExist(cardToUpdate);
-            List<BalanceHistory> oldBalanceHistories = cardToUpdate.getBalanceHistory();
+        List<String> rejections;
+        try {
+            rejections = cardWriteLanes.applyTransactions(Arrays.asList(payload));
+        } catch (InvalidTransactionException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
 
-            BalanceHistory mostRecentHistory = oldBalanceHistories.get(0);
+        StringBuilder notApplied = new StringBuilder();
+        for (int i = 0; i < rejections.size(); i++) {
+            if (rejections.get(i) != null) {
+                notApplied.append("Transaction ").append(i).append(" was not applied: ").append(rejections.get(i))
+                        .append('\n');
+            }
+        }
+        if (notApplied.isEmpty()) {
+            return ResponseEntity.ok("Ok");
+        }
+        return ResponseEntity.status(HttpStatus.MULTI_STATUS).body(notApplied.toString());
+    }
 
-            double transactionAmount = transaction.getTransactionAmount();
+    /**
+     * Applies transactions sent as newline-delimited JSON, one transaction per line.
+     * Lines are parsed as they arrive and applied in chunks of NDJSON_CHUNK_SIZE through the card write lanes, so
+     * memory use does not grow with the size of the body. Invalid transactions, and transactions of a card whose
+     * update failed, are skipped without affecting the others. The result of each transaction is streamed back as a line of newline-delimited JSON
+     * once its chunk has been committed, or appended to the balance journal when it is enabled.
+     * @param request Request whose body holds the transactions.
+     * @param response Response to stream the result of each transaction to.
+     */
+    @Timed("credit_card.update_balance.ndjson")
+    @PostMapping(value = "/credit-card:update-balance", consumes = NDJSON_MEDIA_TYPE)
+    public void streamUpdateCreditCardBalance(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(NDJSON_MEDIA_TYPE);
+        ObjectReader transactionReader = objectMapper.readerFor(UpdateBalancePayload.class);
+        ObjectWriter resultWriter = objectMapper.writerFor(BalanceUpdateResult.class)
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+        BufferedReader lines = new BufferedReader(
+                new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8));
+        OutputStream resultStream = response.getOutputStream();
+        List<BalanceUpdateResult> chunkResults = new ArrayList<>(NDJSON_CHUNK_SIZE);
+        List<UpdateBalancePayload> chunkTransactions = new ArrayList<>(NDJSON_CHUNK_SIZE);
+        // Index into chunkResults of each transaction in chunkTransactions
+        List<Integer> chunkTransactionResultIndexes = new ArrayList<>(NDJSON_CHUNK_SIZE);
+
+        long lineNumber = 0;
+        String line;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
 
-            // If transaction is on the most recent date, then only need to update that most recent transaction
-            ZonedDateTime transactionZonedDateTime = transaction.getTransactionTime().atZone(ZoneOffset.UTC);
-            if (datesAreOnSameDay(transactionZonedDateTime, mostRecentHistory.getDate().atZone(ZoneOffset.UTC))) {
-                mostRecentHistory.setBalance(mostRecentHistory.getBalance() + transactionAmount);
-            } else {
-                // Otherwise, may need to add balance histories in between update date and existing dates
+            try {
+                chunkTransactions.add(transactionReader.readValue(line));
+                chunkTransactionResultIndexes.add(chunkResults.size());
+                chunkResults.add(new BalanceUpdateResult(lineNumber, BalanceUpdateResult.Status.APPLIED, null,
+                        null));
+            } catch (JsonProcessingException e) {
+                chunkResults.add(new BalanceUpdateResult(lineNumber, BalanceUpdateResult.Status.REJECTED,
+                        "Line is not a valid transaction.", null));
+            }
 
-                Instant now = Instant.now();
-                if (transaction.getTransactionTime().isAfter(now)) {
-                    return ResponseEntity.badRequest().body("Transaction is in the future.");
-                }
+            if (chunkResults.size() == NDJSON_CHUNK_SIZE) {
+                applyChunk(chunkTransactions, chunkTransactionResultIndexes, chunkResults, resultWriter, resultStream);
+            }
+        }
+        applyChunk(chunkTransactions, chunkTransactionResultIndexes, chunkResults, resultWriter, resultStream);
+    }
 
+    /**
+     * Applies transactions sent as binary records, see BalanceUpdateRecordFormat. Records are decoded in place from
+     * the body as it arrives and applied in chunks of NDJSON_CHUNK_SIZE like newline-delimited transactions, reusing
+     * the same transaction objects for every chunk. Only rejected records are reported, each as a line of
+     * newline-delimited JSON once its chunk has been committed. Records without a line were applied, or appended to
+     * the balance journal when it is enabled.
+     * @param request Request whose body holds the records.
+     * @param response Response to stream the rejected records to.
+     */
+    @Timed("credit_card.update_balance.binary")
+    @PostMapping(value = "/credit-card:update-balance", consumes = BalanceUpdateRecordFormat.MEDIA_TYPE)
+    public void binaryUpdateCreditCardBalance(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(NDJSON_MEDIA_TYPE);
+        ObjectWriter resultWriter = objectMapper.writerFor(BalanceUpdateResult.class)
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        OutputStream resultStream = response.getOutputStream();
+
+        BalanceUpdateRecordDecoder decoder =
+                new BalanceUpdateRecordDecoder(Channels.newChannel(request.getInputStream()));
+        UpdateBalancePayload[] reusedTransactions = new UpdateBalancePayload[NDJSON_CHUNK_SIZE];
+        for (int i = 0; i < reusedTransactions.length; i++) {
+            reusedTransactions[i] = new UpdateBalancePayload();
+        }
+        List<UpdateBalancePayload> chunkTransactions = new ArrayList<>(NDJSON_CHUNK_SIZE);
+        long[] chunkRecordNumbers = new long[NDJSON_CHUNK_SIZE];
+        List<BalanceUpdateResult> chunkRejections = new ArrayList<>();
+
+        long recordNumber = 0;
+        BalanceUpdateRecordDecoder.Result result;
+        while ((result = decoder.next(reusedTransactions[chunkTransactions.size()]))
+                != BalanceUpdateRecordDecoder.Result.END) {
+            recordNumber++;
+            if (result == BalanceUpdateRecordDecoder.Result.MALFORMED) {
+                chunkRejections.add(new BalanceUpdateResult(recordNumber, BalanceUpdateResult.Status.REJECTED,
+                        "Record is malformed, the records after it were not read.", null));
+                break;
+            }
+            if (result == BalanceUpdateRecordDecoder.Result.INVALID) {
+                chunkRejections.add(new BalanceUpdateResult(recordNumber, BalanceUpdateResult.Status.REJECTED,
+                        "Record is not a valid transaction.", null));
+            } else {
+                chunkRecordNumbers[chunkTransactions.size()] = recordNumber;
+                chunkTransactions.add(reusedTransactions[chunkTransactions.size()]);
+            }
+            // Rejected records count towards the chunk as well, so a body of invalid records is reported as it is read
+            if (chunkTransactions.size() + chunkRejections.size() == NDJSON_CHUNK_SIZE) {
+                applyRecordChunk(chunkTransactions, chunkRecordNumbers, chunkRejections, resultWriter, resultStream);
+            }
+        }
+        applyRecordChunk(chunkTransactions, chunkRecordNumbers, chunkRejections, resultWriter, resultStream);
+    }
 
-                BalanceHistory transactionBalanceHistory = new BalanceHistory();
-                transactionBalanceHistory.setCard(cardToUpdate);
-                transactionBalanceHistory.setDate(transaction.getTransactionTime());
-
-                boolean transactionBalanceHistoryAdded = false;
-
-                // Insert transaction history into correct position in oldBalanceHistories
-                for (int i = 0; i < oldBalanceHistories.size(); i++) {
-                    BalanceHistory currentBalanceHistory = oldBalanceHistories.get(i);
-                    if (datesAreOnSameDay(currentBalanceHistory.getDate().atZone(ZoneOffset.UTC),
-                            transactionZonedDateTime)) {
-                        currentBalanceHistory.setBalance(currentBalanceHistory.getBalance());
-                        transactionBalanceHistory = currentBalanceHistory;
-                        transactionBalanceHistoryAdded = true;
-                        break;
-                    } else if (currentBalanceHistory.getDate().isBefore(transaction.getTransactionTime())) {
-                        // We know current and transaction occurred on different dates, so if current is before,
-                        // transaction must be inserted here
-
-                        transactionBalanceHistory.setBalance(currentBalanceHistory.getBalance());
-                        oldBalanceHistories.add(i, transactionBalanceHistory);
-                        transactionBalanceHistoryAdded = true;
-                        break;
-                    }
-                }
+    /**
+     * Gets how far the balance journal has been applied.
+     * @return 200 response with the last appended and last applied sequence numbers, 404 if the journal is disabled.
+     */
+    @Timed("credit_card.update_balance.journal")
+    @GetMapping("/credit-card:update-balance:journal")
+    public ResponseEntity<BalanceJournalStatus> getBalanceJournalStatus() {
+        if (balanceJournal == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(new BalanceJournalStatus(balanceJournal.getLastSequence(),
+                balanceJournalApplier.getAppliedSequence()));
+    }
 
-                // Insert at end if it is after all existing balance histories
-                // If it wasn't added in between any existing balance histories
-                if (!transactionBalanceHistoryAdded) {
-                    oldBalanceHistories.add(transactionBalanceHistory);
-                }
+    /**
+     * Finds all cards of a user in card number order, reading them MAX_PAGE_SIZE at a time.
+     */
+    private List<CreditCardView> findAllCardsOfUser(int userId) {
+        List<CreditCardView> cards = new ArrayList<>();
+        List<CreditCardView> page;
+        String afterCardNumber = "";
+        do {
+            page = findCardsOfUser(userId, afterCardNumber, MAX_PAGE_SIZE);
+            cards.addAll(page);
+            if (!page.isEmpty()) {
+                afterCardNumber = page.get(page.size() - 1).getNumber();
+            }
+        } while (page.size() == MAX_PAGE_SIZE);
+        return cards;
+    }
 
-                // Fill in dates between existing dates
-
-                ArrayList<BalanceHistory> newBalanceHistories = new ArrayList<>();
-
-                Iterator<BalanceHistory> oldBalanceHistoryIterator = oldBalanceHistories.iterator();
-
-                // First entry must be today, so no possible gaps in dates
-                BalanceHistory previousBalanceHistory = oldBalanceHistoryIterator.next();
-                newBalanceHistories.add(previousBalanceHistory);
-                previousBalanceHistory.setBalance(previousBalanceHistory.getBalance() + transactionAmount);
-
-                while (oldBalanceHistoryIterator.hasNext()) {
-                    BalanceHistory currentBalanceHistory = oldBalanceHistoryIterator.next();
-                    // If we reach the date of the transaction, can stop modifying balances
-                    if (currentBalanceHistory.equals(transactionBalanceHistory)) {
-                        currentBalanceHistory.setBalance(currentBalanceHistory.getBalance() + transactionAmount);
-                        addInBetweenBalanceHistories(newBalanceHistories, cardToUpdate,
-                                currentBalanceHistory.getDate(), previousBalanceHistory.getDate(),
-                                currentBalanceHistory.getBalance());
-                        newBalanceHistories.add(currentBalanceHistory);
-                        // Add remaining balances unchanged since they are after the transaction date
-                        oldBalanceHistoryIterator.forEachRemaining(newBalanceHistories::add);
-                        break;
-                    }
-                    addInBetweenBalanceHistories(newBalanceHistories, cardToUpdate, currentBalanceHistory.getDate(),
-                            previousBalanceHistory.getDate(), currentBalanceHistory.getBalance() + transactionAmount);
-                    newBalanceHistories.add(currentBalanceHistory);
-                    currentBalanceHistory.setBalance(currentBalanceHistory.getBalance() + transactionAmount);
-                    previousBalanceHistory = currentBalanceHistory;
-                }
+    /**
+     * Finds one page of the cards of a user in card number order. With sharding, the user's cards are spread over
+     * all card shards, so a page is read from each shard and the pages are merged.
+     */
+    private List<CreditCardView> findCardsOfUser(int userId, String afterCardNumber, int limit) {
+        return shardRouter.onEachCardShard(() -> creditCardRepository.findViewsByOwner(userId, afterCardNumber,
+                        PageRequest.ofSize(limit)))
+                .stream()
+                .flatMap(List::stream)
+                .sorted(Comparator.comparing(CreditCardView::getNumber))
+                .limit(limit)
+                .toList();
+    }
 
-                cardToUpdate.setBalanceHistory(newBalanceHistories);
+    /**
+     * Applies or journals the valid transactions of a chunk of binary records, writes the rejected records of the
+     * chunk in record order and clears it.
+     */
+    private void applyRecordChunk(List<UpdateBalancePayload> chunkTransactions, long[] chunkRecordNumbers,
+                                  List<BalanceUpdateResult> chunkRejections, ObjectWriter resultWriter,
+                                  OutputStream resultStream) throws IOException {
+        List<String> rejections = balanceJournal != null
+                ? balanceHistoryService.findRejections(chunkTransactions)
+                : cardWriteLanes.applyValidTransactions(chunkTransactions);
+        List<UpdateBalancePayload> validTransactions = new ArrayList<>(chunkTransactions.size());
+        for (int i = 0; i < rejections.size(); i++) {
+            if (rejections.get(i) != null) {
+                chunkRejections.add(new BalanceUpdateResult(chunkRecordNumbers[i],
+                        BalanceUpdateResult.Status.REJECTED, rejections.get(i), null));
+            } else {
+                validTransactions.add(chunkTransactions.get(i));
             }
+        }
+        if (balanceJournal != null && !validTransactions.isEmpty()) {
+            balanceJournal.append(validTransactions);
+        }
 
-            creditCardRepository.save(cardToUpdate);
+        // Records rejected while decoding were added before the earlier records of the chunk were applied
+        chunkRejections.sort(Comparator.comparingLong(BalanceUpdateResult::getLine));
+        for (BalanceUpdateResult rejection : chunkRejections) {
+            resultWriter.writeValue(resultStream, rejection);
+            resultStream.write('\n');
         }
+        resultStream.flush();
 
-        return ResponseEntity.ok("Ok");
+        chunkTransactions.clear();
+        chunkRejections.clear();
     }
 
     /**
-     * Add balance histories to given list for dates between startDate and endDate.
-     * Does not add balance histories for the startDate and endDate.
-     *
-     * @param balanceHistories List to add to.
-     * @param cardToUpdate     Credit card to add balances histories to.
-     * @param startDate        starting date.
-     * @param endDate          ending date.
-     * @param amount           Balance amount of each balance history to add.
+     * Builds the ETag of a response that only depends on a user or card and its version.
      */
-    private void addInBetweenBalanceHistories(List<BalanceHistory> balanceHistories, CreditCard cardToUpdate,
-                                              Instant startDate, Instant endDate, double amount) {
-        ZonedDateTime currentDateTime = startDate.atZone(ZoneOffset.UTC).plusDays(1);
-        ZonedDateTime endDateTime = endDate.atZone(ZoneOffset.UTC);
-        while (currentDateTime.isBefore(endDateTime) && !datesAreOnSameDay(currentDateTime, endDateTime)) {
-            BalanceHistory newInBetweenBalanceHistory = new BalanceHistory();
-            newInBetweenBalanceHistory.setCard(cardToUpdate);
-            newInBetweenBalanceHistory.setBalance(amount);
-            newInBetweenBalanceHistory.setDate(currentDateTime.toInstant());
-            balanceHistories.add(newInBetweenBalanceHistory);
-            currentDateTime = currentDateTime.plusDays(1);
-        }
+    private static String etag(int id, long version) {
+        return id + "-" + version;
     }
 
     /**
-     * Creates a balance history for the current day if it does not already exist in the given card.
-     *
-     * @param card Credit card to add today's balance to.
+     * Applies or journals the valid transactions of a chunk, writes the results of the chunk and clears it.
      */
-    private void populateTodayBalanceIfNotExist(CreditCard card) {
-        List<BalanceHistory> balanceHistory = card.getBalanceHistory();
-        if (balanceHistory == null) {
-            balanceHistory = new ArrayList<>();
+    private void applyChunk(List<UpdateBalancePayload> chunkTransactions, List<Integer> chunkTransactionResultIndexes,
+                            List<BalanceUpdateResult> chunkResults, ObjectWriter resultWriter,
+                            OutputStream resultStream) throws IOException {
+        List<String> rejections = balanceJournal != null
+                ? balanceHistoryService.findRejections(chunkTransactions)
+                : cardWriteLanes.applyValidTransactions(chunkTransactions);
+        List<UpdateBalancePayload> validTransactions = new ArrayList<>(chunkTransactions.size());
+        for (int i = 0; i < rejections.size(); i++) {
+            BalanceUpdateResult result = chunkResults.get(chunkTransactionResultIndexes.get(i));
+            if (rejections.get(i) != null) {
+                result.setStatus(BalanceUpdateResult.Status.REJECTED);
+                result.setMessage(rejections.get(i));
+            } else {
+                validTransactions.add(chunkTransactions.get(i));
+            }
         }
 
-        if (balanceHistory.isEmpty()) {
-            BalanceHistory todayBalance = new BalanceHistory();
-            todayBalance.setCard(card);
-            todayBalance.setDate(Instant.now());
-            todayBalance.setBalance(0);
-
-            balanceHistory.add(0, todayBalance);
-            card.setBalanceHistory(balanceHistory);
-        } else {
-            Instant now = Instant.now();
-            BalanceHistory mostRecentHistory = balanceHistory.get(0);
-            if (!datesAreOnSameDay(mostRecentHistory.getDate().atZone(ZoneOffset.UTC), now.atZone(ZoneOffset.UTC))) {
-                BalanceHistory todayBalance = new BalanceHistory();
-                todayBalance.setCard(card);
-                todayBalance.setDate(Instant.now());
-                // No transactions since mostRecentHistory, so balance is still same as before
-                todayBalance.setBalance(mostRecentHistory.getBalance());
-
-                balanceHistory.add(0, todayBalance);
-                card.setBalanceHistory(balanceHistory);
+        if (balanceJournal != null && !validTransactions.isEmpty()) {
+            // Valid transactions got consecutive sequence numbers ending with the returned one
+            long sequence = balanceJournal.append(validTransactions) - validTransactions.size();
+            for (int i = 0; i < rejections.size(); i++) {
+                if (rejections.get(i) == null) {
+                    BalanceUpdateResult result = chunkResults.get(chunkTransactionResultIndexes.get(i));
+                    result.setStatus(BalanceUpdateResult.Status.ACCEPTED);
+                    result.setSequence(++sequence);
+                }
             }
         }
-    }
 
-    /**
-     * Checks whether two DateTimes are on the same day in terms of day of year. This is not day of week.
-     * For example, two dates with the date being 2023-04-22 would return true.
-     * Dates 2023-05-22 and 2023-02-22 would return false.
-     *
-     * @param date1 First date to check.
-     * @param date2 Second date to check.
-     * @return True if DatTimes are on the same day. False otherwise.
-     */
-    private boolean datesAreOnSameDay(ZonedDateTime date1, ZonedDateTime date2) {
-        return date1.getDayOfYear() == date2.getDayOfYear() && date1.getYear() == date2.getYear();
+        for (BalanceUpdateResult result : chunkResults) {
+            resultWriter.writeValue(resultStream, result);
+            resultStream.write('\n');
+        }
+        resultStream.flush();
+
+        chunkTransactions.clear();
+        chunkTransactionResultIndexes.clear();
+        chunkResults.clear();
     }
 }
@@ -1,25 +1,58 @@
 package com.shepherdmoney.interviewproject.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.shepherdmoney.interviewproject.model.User;
 import com.shepherdmoney.interviewproject.repository.UserRepository;
+import com.shepherdmoney.interviewproject.service.UserDeletionService;
+import com.shepherdmoney.interviewproject.service.UserImportService;
 import com.shepherdmoney.interviewproject.vo.request.CreateUserPayload;
+import com.shepherdmoney.interviewproject.vo.request.ImportUserPayload;
+import com.shepherdmoney.interviewproject.vo.response.UserImportProgress;
+import io.micrometer.core.annotation.Timed;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
 @RestController
 public class UserController {
+    private static final String NDJSON_MEDIA_TYPE = "application/x-ndjson";
+    // Number of newline-delimited users imported in one database transaction
+    private static final int IMPORT_CHUNK_SIZE = 1000;
 
     @Autowired
     UserRepository repository;
 
+    @Autowired
+    UserDeletionService userDeletionService;
+
+    @Autowired
+    UserImportService userImportService;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
     /**
      * Creates a user entity with the given information.
      * @param payload Information with which to create user.
      * @return 200 response with id of created user.
      */
+    @Timed("user.create")
     @PutMapping("/user")
     public ResponseEntity<Integer> createUser(@RequestBody CreateUserPayload payload) {
         User newUser = new User();
@@ -37,19 +70,102 @@ public class UserController {
     }
 
     /**
-     * Deletes the user with the given userId if exists.
+     * Imports users with their credit cards, sent as newline-delimited JSON with one user and its cards per line.
+     * Lines are parsed as they arrive and imported in chunks of IMPORT_CHUNK_SIZE, each in its own database
+     * transaction, so memory use does not grow with the size of the body. A user is rejected together with its cards
+     * if it or any of its cards is invalid, without affecting the other users. Once a chunk is committed, a line of
+     * newline-delimited JSON with the progress so far and the lines rejected in the chunk is streamed back.
+     * @param request Request whose body holds the users.
+     * @param response Response to stream the progress to.
+     */
+    @Timed("user.import")
+    @PostMapping(value = "/user:import", consumes = NDJSON_MEDIA_TYPE)
+    public void importUsers(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(NDJSON_MEDIA_TYPE);
+        ObjectReader userReader = objectMapper.readerFor(ImportUserPayload.class);
+        ObjectWriter progressWriter = objectMapper.writerFor(UserImportProgress.class)
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+        BufferedReader lines = new BufferedReader(
+                new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8));
+        OutputStream progressStream = response.getOutputStream();
+        UserImportProgress progress = new UserImportProgress(0, 0, 0, new ArrayList<>());
+        List<ImportUserPayload> chunkUsers = new ArrayList<>(IMPORT_CHUNK_SIZE);
+        // Line of each user in chunkUsers
+        List<Long> chunkUserLines = new ArrayList<>(IMPORT_CHUNK_SIZE);
+
+        String line;
+        while ((line = lines.readLine()) != null) {
+            progress.setLinesRead(progress.getLinesRead() + 1);
+            if (line.isBlank()) {
+                continue;
+            }
+
+            try {
+                chunkUsers.add(userReader.readValue(line));
+                chunkUserLines.add(progress.getLinesRead());
+            } catch (JsonProcessingException e) {
+                progress.getRejected().add(new UserImportProgress.RejectedLine(progress.getLinesRead(),
+                        "Line is not a valid user."));
+            }
+
+            // Rejected lines count towards the chunk as well, so a body of invalid lines is reported as it is read
+            if (chunkUsers.size() + progress.getRejected().size() == IMPORT_CHUNK_SIZE) {
+                importChunk(chunkUsers, chunkUserLines, progress, progressWriter, progressStream);
+            }
+        }
+        importChunk(chunkUsers, chunkUserLines, progress, progressWriter, progressStream);
+    }
+
+    /**
+     * Imports the users of a chunk, writes the progress so far and clears the chunk.
+     */
+    private void importChunk(List<ImportUserPayload> chunkUsers, List<Long> chunkUserLines,
+                             UserImportProgress progress, ObjectWriter progressWriter,
+                             OutputStream progressStream) throws IOException {
+        List<String> rejections = userImportService.importUsers(chunkUsers);
+        for (int i = 0; i < rejections.size(); i++) {
+            if (rejections.get(i) != null) {
+                progress.getRejected().add(new UserImportProgress.RejectedLine(chunkUserLines.get(i),
+                        rejections.get(i)));
+            } else {
+                List<?> cards = chunkUsers.get(i).getCards();
+                progress.setUsersImported(progress.getUsersImported() + 1);
+                progress.setCardsImported(progress.getCardsImported() + (cards != null ? cards.size() : 0));
+            }
+        }
+
+        progressWriter.writeValue(progressStream, progress);
+        progressStream.write('\n');
+        progressStream.flush();
+
+        progress.getRejected().clear();
+        chunkUsers.clear();
+        chunkUserLines.clear();
+    }
+
+    /**
+     * Deletes the user with the given userId if exists, together with its credit cards and their balance history.
      * Returns 200 OK response of user exists and deletion was successful.
+     * Returns 202 Accepted response if user exists and async is set, in which case the user is deleted in the
+     * background in chunks of cards.
      * Returns 400 Bad Request if user does not exist.
      * Responses have message explaining response
      * @param userId Id of user to delete.
-     * @return 200 response if deletion successful, 400 if user doesn't exist
+     * @param async Whether to delete the user in the background, for users with many cards.
+     * @return 200 response if deletion successful, 202 if deletion was scheduled, 400 if user doesn't exist
      */
+    @Timed("user.delete")
     @DeleteMapping("/user")
-    public ResponseEntity<String> deleteUser(@RequestParam int userId) {
+    public ResponseEntity<String> deleteUser(@RequestParam int userId,
+                                             @RequestParam(defaultValue = "false") boolean async) {
         try {
-            // Check if user we are trying to delete exists before deleting
-            if (repository.existsById(userId)) {
-                repository.deleteById(userId);
+            // Synchronous deletion finds out whether the user exists from the number of deleted rows
+            if (async && repository.existsById(userId)) {
+                userDeletionService.deleteUserInChunks(userId);
+                return ResponseEntity.accepted().body("Scheduled deletion of one user.");
+            } else if (!async && userDeletionService.deleteUser(userId)) {
                 return ResponseEntity.ok("Successfully deleted one user.");
             } else {
                 return ResponseEntity
@@ -0,0 +1,383 @@
+package com.shepherdmoney.interviewproject.journal;
+
+import com.shepherdmoney.interviewproject.vo.request.UpdateBalancePayload;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Durable, append-only journal of accepted balance updates, stored in memory-mapped segment files.
+ * Each transaction gets the next sequence number. A segment file is named after the sequence number of its first
+ * record, and each record is laid out as:
+ * <pre>
+ * int    length of the payload
+ * int    CRC32C of the sequence number and payload
+ * long   sequence number
+ * short  length of the card number     \
+ * byte[] card number, UTF-8             | payload
+ * long   transaction time, epoch millis |
+ * double transaction amount            /
+ * </pre>
+ * The length is written last, so a record whose length is 0, or whose checksum does not match, marks the end of the
+ * journal. On startup, the journal is recovered up to the last complete record.
+ */
+@Component
+@ConditionalOnProperty("balance-journal.enabled")
+public class BalanceJournal {
+
+    private static final int HEADER_SIZE = 16;
+    private static final int MAX_CARD_NUMBER_BYTES = Short.MAX_VALUE;
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    private final FsyncPolicy fsyncPolicy;
+
+    private final long fsyncIntervalMillis;
+
+    // Segments by the sequence number of their first record
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+
+    // Segment appended to, guarded by this
+    private Segment writeSegment;
+
+    // Sequence number of the last appended record. Written after the record, so readers only read complete records
+    private volatile long lastSequence;
+
+    // Where the last read stopped, so that sequential reads do not rescan segments. Only used by readAfter
+    private Segment readSegment;
+    private int readPosition;
+    private long readNextSequence = -1;
+
+    private ScheduledExecutorService fsyncScheduler;
+
+    public BalanceJournal(@Value("${balance-journal.directory}") Path directory,
+                          @Value("${balance-journal.segment-size-mb:64}") int segmentSizeMb,
+                          @Value("${balance-journal.fsync:EVERY_APPEND}") FsyncPolicy fsyncPolicy,
+                          @Value("${balance-journal.fsync-interval-ms:100}") long fsyncIntervalMillis) {
+        this.directory = directory;
+        this.segmentSize = segmentSizeMb * 1024 * 1024;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+    }
+
+    @PostConstruct
+    synchronized void open() throws IOException {
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.filter(path -> path.toString().endsWith(SEGMENT_SUFFIX)).toList()) {
+                String name = file.getFileName().toString();
+                long firstSequence = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                segments.put(firstSequence, Segment.open(file, firstSequence, segmentSize));
+            }
+        }
+
+        for (Map.Entry<Long, Segment> entry : segments.entrySet()) {
+            Segment segment = entry.getValue();
+            long nextSequence = recover(segment);
+            Long nextSegmentFirstSequence = segments.higherKey(entry.getKey());
+            if (nextSegmentFirstSequence != null && nextSegmentFirstSequence != nextSequence) {
+                throw new IllegalStateException("Balance journal segment " + segment.path + " is corrupt at position "
+                        + segment.end + ", the next segment starts at sequence " + nextSegmentFirstSequence);
+            }
+            lastSequence = nextSequence - 1;
+        }
+
+        writeSegment = segments.isEmpty() ? createSegment(1) : segments.lastEntry().getValue();
+        if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+            fsyncScheduler = Executors.newSingleThreadScheduledExecutor(
+                    runnable -> new Thread(runnable, "balance-journal-fsync"));
+            fsyncScheduler.scheduleWithFixedDelay(this::forceWriteSegment, fsyncIntervalMillis, fsyncIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Appends transactions to the journal. Depending on the fsync policy, they are forced to disk before returning.
+     * The transactions get consecutive sequence numbers. Either all transactions are appended or, if this throws,
+     * none are.
+     *
+     * @param transactions Transactions to append.
+     * @return Sequence number of the last appended transaction.
+     */
+    public synchronized long append(List<UpdateBalancePayload> transactions) {
+        // Every transaction is checked before any is written
+        byte[][] cardNumbers = new byte[transactions.size()][];
+        for (int i = 0; i < transactions.size(); i++) {
+            UpdateBalancePayload transaction = transactions.get(i);
+            if (transaction.getCreditCardNumber() == null || transaction.getTransactionTime() == null) {
+                throw new IllegalArgumentException("Transaction is missing its card number or time");
+            }
+            cardNumbers[i] = transaction.getCreditCardNumber().getBytes(StandardCharsets.UTF_8);
+            if (cardNumbers[i].length > MAX_CARD_NUMBER_BYTES) {
+                throw new IllegalArgumentException("Card number is too long to journal");
+            }
+        }
+
+        Segment firstSegment = writeSegment;
+        int firstSegmentEnd = writeSegment.end;
+        long sequence = lastSequence;
+        try {
+            for (int i = 0; i < transactions.size(); i++) {
+                byte[] cardNumber = cardNumbers[i];
+                int length = 2 + cardNumber.length + 8 + 8;
+                if (writeSegment.end + HEADER_SIZE + length > segmentSize) {
+                    writeSegment.buffer.force();
+                    writeSegment = createSegment(sequence + 1);
+                }
+
+                sequence++;
+                MappedByteBuffer buffer = writeSegment.buffer;
+                int position = writeSegment.end;
+                buffer.putLong(position + 8, sequence);
+                buffer.putShort(position + 16, (short) cardNumber.length);
+                buffer.put(position + 18, cardNumber);
+                buffer.putLong(position + 18 + cardNumber.length,
+                        transactions.get(i).getTransactionTime().toEpochMilli());
+                buffer.putDouble(position + 26 + cardNumber.length, transactions.get(i).getTransactionAmount());
+                buffer.putInt(position + 4, checksum(buffer, position, length));
+                buffer.putInt(position, length);
+                writeSegment.end = position + HEADER_SIZE + length;
+            }
+
+            if (fsyncPolicy == FsyncPolicy.EVERY_APPEND) {
+                writeSegment.buffer.force();
+            }
+        } catch (RuntimeException e) {
+            discardAppend(firstSegment, firstSegmentEnd, e);
+            throw e;
+        }
+        lastSequence = sequence;
+        notifyAll();
+        return sequence;
+    }
+
+    /**
+     * Reads the transactions after the given sequence number, waiting for some to be appended if there are none yet.
+     * Meant for a single reader reading sequentially.
+     *
+     * @param afterSequence Sequence number of the last transaction already read.
+     * @param maxEntries    Maximum number of transactions to read.
+     * @param waitMillis    Maximum time to wait for a transaction to be appended.
+     * @return Transactions in sequence order, empty if none were appended in time.
+     */
+    public List<JournalEntry> readAfter(long afterSequence, int maxEntries, long waitMillis)
+            throws InterruptedException {
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + waitMillis;
+            long remaining = waitMillis;
+            while (lastSequence <= afterSequence && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+        }
+
+        long readUpTo = Math.min(lastSequence, afterSequence + maxEntries);
+        if (readNextSequence != afterSequence + 1) {
+            seek(afterSequence + 1);
+        }
+
+        List<JournalEntry> entries = new ArrayList<>();
+        while (readNextSequence <= readUpTo) {
+            if (readPosition + HEADER_SIZE > segmentSize || readSegment.buffer.getInt(readPosition) == 0) {
+                // Rest of the segment was too small for the next record, which is in the next segment
+                readSegment = segments.higherEntry(readSegment.firstSequence).getValue();
+                readPosition = 0;
+            }
+            entries.add(readRecord(readSegment.buffer, readPosition));
+            readPosition += HEADER_SIZE + readSegment.buffer.getInt(readPosition);
+            readNextSequence++;
+        }
+        return entries;
+    }
+
+    /**
+     * Deletes the segments whose transactions have all been applied. The segment being appended to is kept.
+     *
+     * @param appliedSequence Sequence number up to which all transactions have been applied.
+     */
+    public synchronized void deleteAppliedSegments(long appliedSequence) throws IOException {
+        for (Map.Entry<Long, Segment> entry : segments.entrySet()) {
+            Long nextSegmentFirstSequence = segments.higherKey(entry.getKey());
+            if (nextSegmentFirstSequence == null || nextSegmentFirstSequence - 1 > appliedSequence) {
+                break;
+            }
+            segments.remove(entry.getKey());
+            entry.getValue().channel.close();
+            Files.delete(entry.getValue().path);
+        }
+    }
+
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    @PreDestroy
+    synchronized void close() throws IOException {
+        if (fsyncScheduler != null) {
+            fsyncScheduler.shutdown();
+        }
+        writeSegment.buffer.force();
+        for (Segment segment : segments.values()) {
+            segment.channel.close();
+        }
+    }
+
+    private synchronized void forceWriteSegment() {
+        writeSegment.buffer.force();
+    }
+
+    /**
+     * Finds the end of the complete records of a segment and clears whatever follows them.
+     *
+     * @return Sequence number following the last complete record.
+     */
+    private long recover(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        long nextSequence = segment.firstSequence;
+        int position = 0;
+        while (position + HEADER_SIZE <= segmentSize) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + HEADER_SIZE + length > segmentSize
+                    || buffer.getLong(position + 8) != nextSequence
+                    || buffer.getInt(position + 4) != checksum(buffer, position, length)) {
+                break;
+            }
+            nextSequence++;
+            position += HEADER_SIZE + length;
+        }
+
+        // Clear a record that was only partly written when the process stopped
+        for (int i = position; i < segmentSize && i < position + HEADER_SIZE + 2 + MAX_CARD_NUMBER_BYTES + 16; i++) {
+            buffer.put(i, (byte) 0);
+        }
+        segment.end = position;
+        return nextSequence;
+    }
+
+    /**
+     * Removes the records of an append that failed, so that they are not recovered on startup, and the segments it
+     * created.
+     *
+     * @param firstSegment    Segment the append started in.
+     * @param firstSegmentEnd End of the records of that segment before the append.
+     * @param failure         Failure of the append, to which failures to remove the records are added.
+     */
+    private void discardAppend(Segment firstSegment, int firstSegmentEnd, RuntimeException failure) {
+        for (Segment segment : segments.tailMap(firstSegment.firstSequence, false).values()) {
+            segments.remove(segment.firstSequence);
+            try {
+                segment.channel.close();
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                failure.addSuppressed(e);
+            }
+        }
+        firstSegment.buffer.put(firstSegmentEnd, new byte[firstSegment.end - firstSegmentEnd]);
+        firstSegment.end = firstSegmentEnd;
+        writeSegment = firstSegment;
+        try {
+            // The records may have been forced to disk when the append moved to a new segment
+            firstSegment.buffer.force();
+        } catch (RuntimeException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    private void seek(long sequence) {
+        Map.Entry<Long, Segment> entry = segments.floorEntry(sequence);
+        if (entry == null || sequence > lastSequence + 1) {
+            throw new IllegalStateException("Balance journal in " + directory + " holds sequence numbers "
+                    + segments.firstKey() + " to " + lastSequence + ", so it cannot be read from sequence " + sequence
+                    + ". Its segments were deleted or the directory was replaced after the checkpoint was written.");
+        }
+        readSegment = entry.getValue();
+        readPosition = 0;
+        readNextSequence = readSegment.firstSequence;
+        while (readNextSequence < sequence) {
+            readPosition += HEADER_SIZE + readSegment.buffer.getInt(readPosition);
+            readNextSequence++;
+        }
+    }
+
+    private Segment createSegment(long firstSequence) {
+        try {
+            Segment segment = Segment.open(directory.resolve(String.format("%020d%s", firstSequence, SEGMENT_SUFFIX)),
+                    firstSequence, segmentSize);
+            segments.put(firstSequence, segment);
+            return segment;
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not create balance journal segment", e);
+        }
+    }
+
+    private static JournalEntry readRecord(MappedByteBuffer buffer, int position) {
+        long sequence = buffer.getLong(position + 8);
+        byte[] cardNumber = new byte[buffer.getShort(position + 16)];
+        buffer.get(position + 18, cardNumber);
+
+        UpdateBalancePayload transaction = new UpdateBalancePayload();
+        transaction.setCreditCardNumber(new String(cardNumber, StandardCharsets.UTF_8));
+        transaction.setTransactionTime(Instant.ofEpochMilli(buffer.getLong(position + 18 + cardNumber.length)));
+        transaction.setTransactionAmount(buffer.getDouble(position + 26 + cardNumber.length));
+        return new JournalEntry(sequence, transaction);
+    }
+
+    /**
+     * Computes the checksum of the sequence number and payload of the record at the given position.
+     */
+    private static int checksum(MappedByteBuffer buffer, int position, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(position + 8, 8 + length));
+        return (int) crc.getValue();
+    }
+
+    private static final class Segment {
+
+        private final Path path;
+
+        private final long firstSequence;
+
+        private final FileChannel channel;
+
+        private final MappedByteBuffer buffer;
+
+        // Position after the last record
+        private int end;
+
+        private Segment(Path path, long firstSequence, FileChannel channel, MappedByteBuffer buffer) {
+            this.path = path;
+            this.firstSequence = firstSequence;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment open(Path path, long firstSequence, int size) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            return new Segment(path, firstSequence, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+    }
+}
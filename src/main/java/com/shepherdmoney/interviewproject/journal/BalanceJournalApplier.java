@@ -0,0 +1,175 @@
+package com.shepherdmoney.interviewproject.journal;
+
+import com.shepherdmoney.interviewproject.model.JobCheckpoint;
+import com.shepherdmoney.interviewproject.repository.JobCheckpointRepository;
+import com.shepherdmoney.interviewproject.service.BalanceHistoryService;
+import com.shepherdmoney.interviewproject.sharding.ShardRouter;
+import com.shepherdmoney.interviewproject.vo.request.UpdateBalancePayload;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Drains the balance journal into the balance history in batches, on a single background thread.
+ * Each batch is applied in the same database transaction that moves the journal checkpoint past it, so after a
+ * restart the applier resumes right after the last committed batch and every journaled transaction is applied
+ * exactly once.
+ * <p>
+ * Transactions are validated again when they are applied, and those that have become invalid, for example because
+ * their card was deleted in the meantime, are logged and skipped.
+ * <p>
+ * With sharding, every card shard keeps its own checkpoint, and the part of a batch for a shard is applied in the
+ * same transaction that moves that shard's checkpoint. After a restart, the applier resumes after the lowest
+ * checkpoint and skips the transactions a shard has already applied.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty("balance-journal.enabled")
+public class BalanceJournalApplier implements SmartLifecycle {
+
+    static final String CHECKPOINT_NAME = "balance-journal";
+
+    // Time to wait for transactions to be appended before polling again
+    private static final long POLL_MILLIS = 1000;
+
+    // Time to wait before retrying a batch that failed
+    private static final long RETRY_MILLIS = 5000;
+
+    @Autowired
+    private BalanceJournal balanceJournal;
+
+    @Autowired
+    private BalanceHistoryService balanceHistoryService;
+
+    @Autowired
+    private JobCheckpointRepository jobCheckpointRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    private final int batchSize;
+
+    private volatile Thread thread;
+
+    // Sequence number of the last transaction applied and checkpointed on all shards
+    private volatile long appliedSequence;
+
+    // Sequence number of the last transaction applied and checkpointed on each card shard, only used by the applier
+    private final Map<Integer, Long> appliedSequenceByShard = new HashMap<>();
+
+    public BalanceJournalApplier(@Value("${balance-journal.apply-batch-size:10000}") int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+    @Override
+    public void start() {
+        for (int shard : shardRouter.getCardShards()) {
+            appliedSequenceByShard.put(shard, shardRouter.onShard(shard, () -> jobCheckpointRepository
+                    .findById(CHECKPOINT_NAME).map(JobCheckpoint::getPosition).orElse(0L)));
+        }
+        appliedSequence = appliedSequenceByShard.values().stream().mapToLong(Long::longValue).min().orElse(0);
+        thread = new Thread(this::run, "balance-journal-applier");
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        Thread applierThread = thread;
+        thread = null;
+        applierThread.interrupt();
+        try {
+            applierThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return thread != null;
+    }
+
+    private void run() {
+        while (thread != null) {
+            try {
+                List<JournalEntry> entries = balanceJournal.readAfter(appliedSequence, batchSize, POLL_MILLIS);
+                if (entries.isEmpty()) {
+                    continue;
+                }
+                apply(entries);
+                balanceJournal.deleteAppliedSegments(appliedSequence);
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException | IOException e) {
+                log.error("Could not apply balance journal after sequence {}, retrying", appliedSequence, e);
+                try {
+                    Thread.sleep(RETRY_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void apply(List<JournalEntry> entries) {
+        long lastSequence = entries.get(entries.size() - 1).sequence();
+        Map<Integer, List<JournalEntry>> entriesByShard =
+                shardRouter.groupByShard(entries, entry -> entry.transaction().getCreditCardNumber());
+        // Every shard moves its checkpoint, including shards without transactions in the batch
+        for (int shard : shardRouter.getCardShards()) {
+            long shardSequence = appliedSequenceByShard.get(shard);
+            if (shardSequence >= lastSequence) {
+                continue;
+            }
+            List<JournalEntry> shardEntries = entriesByShard.getOrDefault(shard, List.of()).stream()
+                    .filter(entry -> entry.sequence() > shardSequence)
+                    .toList();
+            shardRouter.onShard(shard, () -> applyToShard(shardEntries, lastSequence));
+            appliedSequenceByShard.put(shard, lastSequence);
+        }
+        appliedSequence = lastSequence;
+    }
+
+    /**
+     * Applies the transactions of a batch on the shard the current thread is routed to, and moves the shard's
+     * checkpoint to the end of the batch, in one transaction.
+     */
+    private void applyToShard(List<JournalEntry> entries, long lastSequence) {
+        List<UpdateBalancePayload> transactions = entries.stream().map(JournalEntry::transaction).toList();
+        transactionTemplate.executeWithoutResult(status -> {
+            if (!transactions.isEmpty()) {
+                List<String> rejections = balanceHistoryService.applyValidTransactions(transactions);
+                for (int i = 0; i < rejections.size(); i++) {
+                    if (rejections.get(i) != null) {
+                        log.warn("Skipped journaled transaction {}: {}", entries.get(i).sequence(),
+                                rejections.get(i));
+                    }
+                }
+            }
+
+            JobCheckpoint checkpoint = jobCheckpointRepository.findById(CHECKPOINT_NAME).orElseGet(() -> {
+                JobCheckpoint newCheckpoint = new JobCheckpoint();
+                newCheckpoint.setName(CHECKPOINT_NAME);
+                return newCheckpoint;
+            });
+            checkpoint.setPosition(lastSequence);
+            jobCheckpointRepository.save(checkpoint);
+        });
+    }
+}
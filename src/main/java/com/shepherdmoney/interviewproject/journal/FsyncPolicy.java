@@ -0,0 +1,12 @@
+package com.shepherdmoney.interviewproject.journal;
+
+/**
+ * When appended journal records are forced to disk.
+ */
+public enum FsyncPolicy {
+    // Before an append is acknowledged, so an acknowledged transaction survives a machine crash
+    EVERY_APPEND,
+    // Every balance-journal.fsync-interval-ms, so a machine crash loses at most that much acknowledged data.
+    // A process crash loses nothing, since the operating system still writes back the mapped pages.
+    INTERVAL
+}
@@ -0,0 +1,12 @@
+package com.shepherdmoney.interviewproject.journal;
+
+import com.shepherdmoney.interviewproject.vo.request.UpdateBalancePayload;
+
+/**
+ * Transaction read back from the balance journal.
+ *
+ * @param sequence    Sequence number the transaction was acknowledged with.
+ * @param transaction The transaction.
+ */
+public record JournalEntry(long sequence, UpdateBalancePayload transaction) {
+}
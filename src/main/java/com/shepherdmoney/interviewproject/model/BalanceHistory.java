@@ -1,6 +1,6 @@
 package com.shepherdmoney.interviewproject.model;
 
-import java.time.Instant;
+import java.time.LocalDate;
 
 import jakarta.persistence.*;
 import lombok.Getter;
@@ -8,21 +8,32 @@ import lombok.RequiredArgsConstructor;
 import lombok.Setter;
 import lombok.ToString;
 
+/**
+ * A change point in a credit card's balance. Only days on which the balance changed are stored: the balance on any
+ * day is the balance of the most recent change point on or before that day, or 0 if there is none.
+ */
 @Entity
 @Getter
 @Setter
 @ToString
 @RequiredArgsConstructor
+@Table(uniqueConstraints = @UniqueConstraint(columnNames = {"card_id", "date"}),
+        // Covers balance series reads, which then do not need to visit the table
+        indexes = @Index(columnList = "card_id, date, balance"))
 public class BalanceHistory {
 
+    // Pooled sequence so that ids for a batch of new change points are allocated with one round trip
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "balance_history_seq")
+    @SequenceGenerator(name = "balance_history_seq", sequenceName = "balance_history_seq", allocationSize = 100)
     private int id;
-    
-    private Instant date;
 
+    // UTC calendar day of the change
+    private LocalDate date;
+
+    // Balance at the end of date, which holds until the next change point
     private double balance;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     CreditCard card;
 }
@@ -16,17 +16,26 @@ import static org.hibernate.annotations.CascadeType.*;
 @Setter
 @ToString
 @RequiredArgsConstructor
+@Table(uniqueConstraints = @UniqueConstraint(columnNames = "number"),
+        // Lets the cards of a user be paged through in card number order
+        indexes = @Index(columnList = "owner_id, number"))
 public class CreditCard {
 
+    // Pooled sequence so that ids for a batch of imported cards are allocated with one round trip
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "credit_card_seq")
+    @SequenceGenerator(name = "credit_card_seq", sequenceName = "credit_card_seq", allocationSize = 100)
     private int id;
 
     private String issuanceBank;
 
     private String number;
 
-    @ManyToOne
+    // Bumped whenever the card's balance changes, to tag responses about the card. Not a JPA @Version, since it is
+    // bumped with bulk updates and not used for optimistic locking
+    private long version;
+
+    @ManyToOne(fetch = FetchType.LAZY)
     User owner;
 
     @OneToMany(mappedBy = "card")
@@ -0,0 +1,24 @@
+package com.shepherdmoney.interviewproject.model;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Position a background job has durably reached, so that it can resume from there after a restart.
+ */
+@Entity
+@Getter
+@Setter
+@ToString
+@RequiredArgsConstructor
+public class JobCheckpoint {
+
+    @Id
+    private String name;
+
+    private long position;
+}
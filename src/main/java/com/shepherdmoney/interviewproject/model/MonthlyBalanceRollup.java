@@ -0,0 +1,46 @@
+package com.shepherdmoney.interviewproject.model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+import java.time.LocalDate;
+
+/**
+ * Aggregates of a credit card's end-of-day balances over one calendar month. A card has a rollup for every month from
+ * the month of its first change point through the month of its last one. Every rollup covers all days of its month,
+ * and the balance holds at the end balance of the last rollup after it.
+ */
+@Entity
+@Getter
+@Setter
+@ToString
+@RequiredArgsConstructor
+@Table(uniqueConstraints = @UniqueConstraint(columnNames = {"card_id", "monthStart"}))
+public class MonthlyBalanceRollup {
+
+    // Pooled sequence so that ids for the rollups of a batch are allocated with one round trip
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "monthly_balance_rollup_seq")
+    @SequenceGenerator(name = "monthly_balance_rollup_seq", sequenceName = "monthly_balance_rollup_seq",
+            allocationSize = 100)
+    private int id;
+
+    // First day of the month
+    private LocalDate monthStart;
+
+    private double minBalance;
+
+    private double maxBalance;
+
+    // Sum of the end-of-day balances of all days of the month
+    private double balanceSum;
+
+    // Balance at the end of the last day of the month
+    private double endBalance;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    CreditCard card;
+}
@@ -20,14 +20,20 @@ import static org.hibernate.annotations.CascadeType.PERSIST;
 @Table(name = "MyUser")
 public class User {
 
+    // Pooled sequence so that ids for a batch of imported users are allocated with one round trip
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "my_user_seq")
+    @SequenceGenerator(name = "my_user_seq", sequenceName = "my_user_seq", allocationSize = 100)
     private int id;
 
     private String name;
 
     private String email;
 
+    // Bumped whenever a card is added to or deleted from the user, to tag responses listing the user's cards. Not a JPA
+    // @Version, since it is bumped with bulk updates and not used for optimistic locking
+    private long version;
+
     // TODO: User's credit card
     // HINT: A user can have one or more, or none at all. We want to be able to query credit cards by user
     //       and user by a credit card.
@@ -0,0 +1,63 @@
+package com.shepherdmoney.interviewproject.repository;
+
+import com.shepherdmoney.interviewproject.model.BalanceHistory;
+import com.shepherdmoney.interviewproject.vo.response.BalanceHistoryView;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Crud repository to store balance history change points
+ */
+@RepositoryRestResource(exported = false)
+@Repository("BalanceHistoryRepo")
+public interface BalanceHistoryRepository extends JpaRepository<BalanceHistory, Integer> {
+    /**
+     * Finds the change points of a card up to and including the given date, latest first.
+     * With a page size of 1, this is the change point that determines the card's balance on that date.
+     */
+    @Query("select new com.shepherdmoney.interviewproject.vo.response.BalanceHistoryView(b.date, b.balance) "
+            + "from BalanceHistory b where b.card.id = :cardId and b.date <= :date order by b.date desc")
+    List<BalanceHistoryView> findViewsUpTo(int cardId, LocalDate date, Pageable pageable);
+
+    @Query("select new com.shepherdmoney.interviewproject.vo.response.BalanceHistoryView(b.date, b.balance) "
+            + "from BalanceHistory b where b.card.id = :cardId order by b.date")
+    List<BalanceHistoryView> findAllViews(int cardId);
+
+    /**
+     * Finds the change points of a card after afterDate and up to and including endDate, in date order.
+     */
+    @Query("select new com.shepherdmoney.interviewproject.vo.response.BalanceHistoryView(b.date, b.balance) "
+            + "from BalanceHistory b where b.card.id = :cardId and b.date > :afterDate and b.date <= :endDate "
+            + "order by b.date")
+    List<BalanceHistoryView> findViewsBetween(int cardId, LocalDate afterDate, LocalDate endDate);
+
+    @Query("select b from BalanceHistory b where b.card.id in :cardIds and b.date >= :date order by b.date")
+    List<BalanceHistory> findChangesFrom(Collection<Integer> cardIds, LocalDate date);
+
+    /**
+     * Finds, for each of the given cards, its last change point strictly before the given date.
+     * Cards without a change point before the date are left out.
+     */
+    @Query("select b from BalanceHistory b where b.card.id in :cardIds and b.date = "
+            + "(select max(p.date) from BalanceHistory p where p.card = b.card and p.date < :date)")
+    List<BalanceHistory> findLastChangesBefore(Collection<Integer> cardIds, LocalDate date);
+
+    @Query("select b from BalanceHistory b where b.card.id in :cardIds order by b.date, b.id")
+    List<BalanceHistory> findAllByCardIdIn(Collection<Integer> cardIds);
+
+    @Modifying
+    @Query("delete from BalanceHistory b where b.card.id in :cardIds")
+    int deleteByCardIdIn(Collection<Integer> cardIds);
+
+    @Modifying
+    @Query("delete from BalanceHistory b where b.card.id in (select c.id from CreditCard c where c.owner.id = :userId)")
+    int deleteByOwner(int userId);
+}
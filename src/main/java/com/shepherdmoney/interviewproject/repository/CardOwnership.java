@@ -0,0 +1,11 @@
+package com.shepherdmoney.interviewproject.repository;
+
+/**
+ * Projection of a credit card to the ids needed to resolve it, without loading the card or its owner.
+ *
+ * @param cardNumber Number of the card.
+ * @param cardId     Id of the card.
+ * @param ownerId    Id of the user owning the card.
+ */
+public record CardOwnership(String cardNumber, int cardId, int ownerId) {
+}
@@ -1,17 +1,71 @@
 package com.shepherdmoney.interviewproject.repository;
 
 import com.shepherdmoney.interviewproject.model.CreditCard;
+import com.shepherdmoney.interviewproject.vo.response.CreditCardView;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 /**
  * Crud repository to store credit cards
  */
 @Repository("CreditCardRepo")
 public interface CreditCardRepository extends JpaRepository<CreditCard, Integer> {
-    List<CreditCard> findByNumber(String cardNumber);
+    boolean existsByNumber(String cardNumber);
+
+    /**
+     * Finds one page of the cards of a user in card number order, starting after the given card number.
+     * Rows are built as views directly by the query, so no card or user entities are loaded.
+     */
+    @Query("select new com.shepherdmoney.interviewproject.vo.response.CreditCardView(c.issuanceBank, c.number) "
+            + "from CreditCard c where c.owner.id = :userId and c.number > :afterCardNumber order by c.number")
+    List<CreditCardView> findViewsByOwner(int userId, String afterCardNumber, Pageable pageable);
+
+    /**
+     * Finds the card and owner ids of the cards with the given numbers without loading the cards.
+     */
+    @Query("select new com.shepherdmoney.interviewproject.repository.CardOwnership(c.number, c.id, c.owner.id) "
+            + "from CreditCard c where c.number in :cardNumbers")
+    List<CardOwnership> findOwnershipsByNumberIn(Collection<String> cardNumbers);
+
+    /**
+     * Finds which of the given card numbers already belong to a card.
+     */
+    @Query("select c.number from CreditCard c where c.number in :cardNumbers")
+    List<String> findExistingNumbers(Collection<String> cardNumbers);
+
+    @Query("select c.number from CreditCard c where c.id = :cardId")
+    Optional<String> findNumberById(int cardId);
+
+    @Query("select c.version from CreditCard c where c.id = :cardId")
+    Optional<Long> findVersionById(int cardId);
+
+    @Modifying
+    @Query("update CreditCard c set c.version = c.version + 1 where c.id in :cardIds")
+    int incrementVersions(Collection<Integer> cardIds);
+
+    /**
+     * Finds one page of card ids in id order, starting after the given id.
+     */
+    @Query("select c.id from CreditCard c where c.id > :afterCardId order by c.id")
+    List<Integer> findIdsAfter(int afterCardId, Pageable pageable);
+
+    @Query("select c.id from CreditCard c where c.owner.id = :userId order by c.id")
+    List<Integer> findIdsByOwner(int userId, Pageable pageable);
+
+    @Modifying
+    @Query("delete from CreditCard c where c.id in :cardIds")
+    int deleteByIdIn(Collection<Integer> cardIds);
+
+    @Modifying
+    @Query("delete from CreditCard c where c.owner.id = :userId")
+    int deleteByOwner(int userId);
 
 
 }
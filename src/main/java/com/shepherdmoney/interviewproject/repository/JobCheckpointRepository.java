@@ -0,0 +1,14 @@
+package com.shepherdmoney.interviewproject.repository;
+
+import com.shepherdmoney.interviewproject.model.JobCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Crud repository to store job checkpoints
+ */
+@RepositoryRestResource(exported = false)
+@Repository("JobCheckpointRepo")
+public interface JobCheckpointRepository extends JpaRepository<JobCheckpoint, String> {
+}
@@ -0,0 +1,50 @@
+package com.shepherdmoney.interviewproject.repository;
+
+import com.shepherdmoney.interviewproject.model.MonthlyBalanceRollup;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Crud repository to store monthly balance rollups
+ */
+@RepositoryRestResource(exported = false)
+@Repository("MonthlyBalanceRollupRepo")
+public interface MonthlyBalanceRollupRepository extends JpaRepository<MonthlyBalanceRollup, Integer> {
+    @Query("select r from MonthlyBalanceRollup r where r.card.id in :cardIds and r.monthStart >= :monthStart")
+    List<MonthlyBalanceRollup> findFrom(Collection<Integer> cardIds, LocalDate monthStart);
+
+    @Query("select r from MonthlyBalanceRollup r where r.card.id in :cardIds")
+    List<MonthlyBalanceRollup> findByCardIdIn(Collection<Integer> cardIds);
+
+    /**
+     * Finds the rollups of a card from startMonthStart through endMonthStart, in month order.
+     */
+    @Query("select r from MonthlyBalanceRollup r where r.card.id = :cardId "
+            + "and r.monthStart >= :startMonthStart and r.monthStart <= :endMonthStart order by r.monthStart")
+    List<MonthlyBalanceRollup> findBetween(int cardId, LocalDate startMonthStart, LocalDate endMonthStart);
+
+    /**
+     * Finds the rollups of a card strictly before the given month, latest first.
+     * With a page size of 1, its end balance is the balance the card starts that month with.
+     */
+    @Query("select r from MonthlyBalanceRollup r where r.card.id = :cardId and r.monthStart < :monthStart "
+            + "order by r.monthStart desc")
+    List<MonthlyBalanceRollup> findBefore(int cardId, LocalDate monthStart, Pageable pageable);
+
+    @Modifying
+    @Query("delete from MonthlyBalanceRollup r where r.card.id in :cardIds")
+    int deleteByCardIdIn(Collection<Integer> cardIds);
+
+    @Modifying
+    @Query("delete from MonthlyBalanceRollup r "
+            + "where r.card.id in (select c.id from CreditCard c where c.owner.id = :userId)")
+    int deleteByOwner(int userId);
+}
@@ -2,12 +2,31 @@ package com.shepherdmoney.interviewproject.repository;
 
 import com.shepherdmoney.interviewproject.model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Optional;
 
 /**
  * Crud Repository to store User classes
  */
 @Repository("UserRepo")
 public interface UserRepository extends JpaRepository<User, Integer> {
+    @Query("select u.version from User u where u.id = :userId")
+    Optional<Long> findVersionById(int userId);
+
+    @Transactional
+    @Modifying
+    @Query("update User u set u.version = u.version + 1 where u.id = :userId")
+    int incrementVersion(int userId);
+
+    /**
+     * Deletes a user without loading it. Its cards must have been deleted first.
+     */
+    @Modifying
+    @Query("delete from User u where u.id = :userId")
+    int deleteWithoutLoading(int userId);
 }
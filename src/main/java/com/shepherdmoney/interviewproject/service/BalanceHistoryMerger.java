@@ -0,0 +1,78 @@
+package com.shepherdmoney.interviewproject.service;
+
+import com.shepherdmoney.interviewproject.model.BalanceHistory;
+import com.shepherdmoney.interviewproject.model.CreditCard;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies a card's transactions to its change points in a single pass over both.
+ */
+public final class BalanceHistoryMerger {
+
+    private BalanceHistoryMerger() {
+    }
+
+    /**
+     * Merges transactions into the change points of a card. Existing change points are updated in place and a change
+     * point is created for each transaction day that does not have one yet.
+     *
+     * @param card             Card the change points belong to.
+     * @param previousBalance  Balance before the first change point and first transaction.
+     * @param changePoints     Change points of the card from the first transaction date or earlier on, in ascending
+     *                         date order.
+     * @param transactionDays  Epoch day of each transaction, in ascending order.
+     * @param amounts          Amount of each transaction.
+     * @param transactionCount Number of transactions to read from transactionDays and amounts.
+     * @return Change points created for days that did not have one, in ascending date order.
+     */
+    public static List<BalanceHistory> merge(CreditCard card, double previousBalance, List<BalanceHistory> changePoints,
+                                             long[] transactionDays, double[] amounts, int transactionCount) {
+        List<BalanceHistory> createdChangePoints = new ArrayList<>();
+        // Sum of the transactions merged so far, which every later balance includes
+        double appliedAmount = 0;
+        // Balance before the current position, without the merged transactions
+        double balanceBefore = previousBalance;
+        int next = 0;
+
+        for (BalanceHistory changePoint : changePoints) {
+            long changeDay = changePoint.getDate().toEpochDay();
+            while (next < transactionCount && transactionDays[next] < changeDay) {
+                long day = transactionDays[next];
+                while (next < transactionCount && transactionDays[next] == day) {
+                    appliedAmount += amounts[next++];
+                }
+                createdChangePoints.add(newChangePoint(card, day, balanceBefore + appliedAmount));
+            }
+            while (next < transactionCount && transactionDays[next] == changeDay) {
+                appliedAmount += amounts[next++];
+            }
+
+            balanceBefore = changePoint.getBalance();
+            if (appliedAmount != 0) {
+                changePoint.setBalance(changePoint.getBalance() + appliedAmount);
+            }
+        }
+
+        // Transactions after the last change point
+        while (next < transactionCount) {
+            long day = transactionDays[next];
+            while (next < transactionCount && transactionDays[next] == day) {
+                appliedAmount += amounts[next++];
+            }
+            createdChangePoints.add(newChangePoint(card, day, balanceBefore + appliedAmount));
+        }
+
+        return createdChangePoints;
+    }
+
+    private static BalanceHistory newChangePoint(CreditCard card, long epochDay, double balance) {
+        BalanceHistory changePoint = new BalanceHistory();
+        changePoint.setCard(card);
+        changePoint.setDate(LocalDate.ofEpochDay(epochDay));
+        changePoint.setBalance(balance);
+        return changePoint;
+    }
+}
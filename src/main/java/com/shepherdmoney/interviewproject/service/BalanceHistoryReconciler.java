@@ -0,0 +1,430 @@
+package com.shepherdmoney.interviewproject.service;
+
+import com.shepherdmoney.interviewproject.model.BalanceHistory;
+import com.shepherdmoney.interviewproject.model.JobCheckpoint;
+import com.shepherdmoney.interviewproject.model.MonthlyBalanceRollup;
+import com.shepherdmoney.interviewproject.repository.BalanceHistoryRepository;
+import com.shepherdmoney.interviewproject.repository.CreditCardRepository;
+import com.shepherdmoney.interviewproject.repository.JobCheckpointRepository;
+import com.shepherdmoney.interviewproject.repository.MonthlyBalanceRollupRepository;
+import com.shepherdmoney.interviewproject.sharding.ShardRouter;
+import com.shepherdmoney.interviewproject.vo.response.ReconciliationReport;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Background job that checks the balance history of every card and repairs what it finds:
+ * <ul>
+ *     <li>Duplicate change points on the same day, of which the last written one is kept. The unique constraint on
+ *     card and date keeps them out of the table, so this is only a defensive check for databases where the
+ *     constraint is missing.</li>
+ *     <li>Monthly rollups that are missing or do not match the change points, which are recomputed.</li>
+ *     <li>Optionally, change points with the same balance as the one before them, which carry no information and
+ *     are deleted.</li>
+ * </ul>
+ * Cards are read in pages of CARD_PAGE_SIZE in id order, and each page is checked in parallel on a fork-join pool of
+ * balance-history-reconciliation.parallelism threads. The job is throttled to max-cards-per-second. Each repair runs
+ * in the write lane of its card, so it is serialized with balance updates to the card, and checks the card again in
+ * its own transaction before changing it. After each page, the job saves the last card id as a checkpoint, and a
+ * later run resumes from there. A dry run only reports and starts from the first card.
+ * <p>
+ * With sharding, the card shards are scanned one after the other, each with its own checkpoint in the directory.
+ */
+@Slf4j
+@Service
+public class BalanceHistoryReconciler {
+
+    private static final String CHECKPOINT_NAME = "balance-history-reconciliation";
+
+    // Checkpoint of a shard that has been scanned completely by a run that has not finished yet
+    private static final int SHARD_FINISHED = Integer.MAX_VALUE;
+
+    // Number of cards read per page
+    private static final int CARD_PAGE_SIZE = 500;
+
+    // Number of cards a fork-join task checks without splitting further
+    private static final int CARDS_PER_TASK = 50;
+
+    // Largest relative difference between a stored and a recomputed rollup value that is not drift
+    private static final double ROLLUP_TOLERANCE = 1e-6;
+
+    @Autowired
+    private CreditCardRepository creditCardRepository;
+    @Autowired
+    private BalanceHistoryRepository balanceHistoryRepository;
+    @Autowired
+    private MonthlyBalanceRollupRepository monthlyBalanceRollupRepository;
+    @Autowired
+    private JobCheckpointRepository jobCheckpointRepository;
+    @Autowired
+    private CardWriteLanes cardWriteLanes;
+    @Autowired
+    private BalanceSeriesCache balanceSeriesCache;
+    @Autowired
+    private EntityVersionCache entityVersionCache;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private ShardRouter shardRouter;
+
+    private final ForkJoinPool pool;
+
+    private final int maxCardsPerSecond;
+
+    private final ExecutorService runner =
+            Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "balance-history-reconciliation"));
+
+    // State of the current or last run, guarded by this
+    private boolean running;
+    private boolean dryRun;
+    private boolean compact;
+    private int shard;
+    private int lastCardId;
+    private String error;
+
+    private final AtomicLong cardsScanned = new AtomicLong();
+    private final AtomicLong duplicateChangePoints = new AtomicLong();
+    private final AtomicLong redundantChangePoints = new AtomicLong();
+    private final AtomicLong driftedRollups = new AtomicLong();
+    private final AtomicLong cardsRepaired = new AtomicLong();
+
+    public BalanceHistoryReconciler(
+            @Value("${balance-history-reconciliation.parallelism:2}") int parallelism,
+            @Value("${balance-history-reconciliation.max-cards-per-second:1000}") int maxCardsPerSecond) {
+        this.pool = new ForkJoinPool(parallelism);
+        this.maxCardsPerSecond = maxCardsPerSecond;
+    }
+
+    /**
+     * Starts a run in the background unless one is running already.
+     *
+     * @param dryRun  Whether to only report problems without repairing them.
+     * @param compact Whether to delete change points with the same balance as the one before them.
+     * @return Whether a run was started.
+     */
+    public synchronized boolean start(boolean dryRun, boolean compact) {
+        if (running) {
+            return false;
+        }
+        running = true;
+        this.dryRun = dryRun;
+        this.compact = compact;
+        error = null;
+        cardsScanned.set(0);
+        duplicateChangePoints.set(0);
+        redundantChangePoints.set(0);
+        driftedRollups.set(0);
+        cardsRepaired.set(0);
+        shard = shardRouter.getCardShards().get(0);
+        lastCardId = dryRun ? 0 : loadCheckpoint(shard);
+
+        runner.execute(this::run);
+        return true;
+    }
+
+    public synchronized ReconciliationReport getReport() {
+        return new ReconciliationReport(running, dryRun, compact, shard, lastCardId, cardsScanned.get(),
+                duplicateChangePoints.get(), redundantChangePoints.get(), driftedRollups.get(), cardsRepaired.get(),
+                error);
+    }
+
+    private void run() {
+        try {
+            for (int cardShard : shardRouter.getCardShards()) {
+                int afterCardId = dryRun ? 0 : loadCheckpoint(cardShard);
+                synchronized (this) {
+                    shard = cardShard;
+                    lastCardId = afterCardId;
+                }
+                if (afterCardId != SHARD_FINISHED) {
+                    scanShard(cardShard, afterCardId);
+                }
+            }
+
+            // A finished run is not resumed, the next one starts from the first card again
+            if (!dryRun) {
+                for (int cardShard : shardRouter.getCardShards()) {
+                    saveCheckpoint(cardShard, 0);
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("Balance history reconciliation stopped", e);
+            synchronized (this) {
+                error = e.getMessage();
+            }
+        } catch (InterruptedException e) {
+            synchronized (this) {
+                error = "Interrupted";
+            }
+        } finally {
+            synchronized (this) {
+                running = false;
+            }
+        }
+    }
+
+    /**
+     * Checks the cards of a shard after the given card id, page by page.
+     */
+    private void scanShard(int cardShard, int afterCardId) throws InterruptedException {
+        List<Integer> cardIds;
+        do {
+            long pageStart = System.nanoTime();
+            int pageAfterCardId = afterCardId;
+            cardIds = shardRouter.onShard(cardShard,
+                    () -> creditCardRepository.findIdsAfter(pageAfterCardId, PageRequest.ofSize(CARD_PAGE_SIZE)));
+            if (cardIds.isEmpty()) {
+                break;
+            }
+            pool.invoke(new CheckCardsTask(cardShard, cardIds));
+            afterCardId = cardIds.get(cardIds.size() - 1);
+            synchronized (this) {
+                lastCardId = afterCardId;
+            }
+            if (!dryRun) {
+                saveCheckpoint(cardShard, afterCardId);
+            }
+            throttle(pageStart, cardIds.size());
+        } while (cardIds.size() == CARD_PAGE_SIZE);
+
+        // A resumed run continues with the next shard
+        if (!dryRun) {
+            saveCheckpoint(cardShard, SHARD_FINISHED);
+        }
+    }
+
+    /**
+     * Waits long enough that cards are not checked faster than maxCardsPerSecond.
+     */
+    private void throttle(long pageStart, int pageSize) throws InterruptedException {
+        if (maxCardsPerSecond <= 0) {
+            return;
+        }
+        long minPageNanos = TimeUnit.SECONDS.toNanos(pageSize) / maxCardsPerSecond;
+        long remainingNanos = minPageNanos - (System.nanoTime() - pageStart);
+        if (remainingNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(remainingNanos);
+        }
+    }
+
+    private int loadCheckpoint(int cardShard) {
+        return jobCheckpointRepository.findById(checkpointName(cardShard)).map(JobCheckpoint::getPosition).orElse(0L)
+                .intValue();
+    }
+
+    private void saveCheckpoint(int cardShard, int cardId) {
+        String name = checkpointName(cardShard);
+        JobCheckpoint checkpoint = jobCheckpointRepository.findById(name).orElseGet(() -> {
+            JobCheckpoint newCheckpoint = new JobCheckpoint();
+            newCheckpoint.setName(name);
+            return newCheckpoint;
+        });
+        checkpoint.setPosition(cardId);
+        jobCheckpointRepository.save(checkpoint);
+    }
+
+    private String checkpointName(int cardShard) {
+        return shardRouter.isEnabled() ? CHECKPOINT_NAME + "-shard-" + cardShard : CHECKPOINT_NAME;
+    }
+
+    /**
+     * Checks a group of cards, reading their change points and rollups with one query each, and repairs the cards
+     * that need it.
+     */
+    private void checkCards(List<Integer> cardIds) {
+        Map<Integer, List<BalanceHistory>> changePointsByCardId = balanceHistoryRepository
+                .findAllByCardIdIn(cardIds)
+                .stream()
+                .collect(Collectors.groupingBy(changePoint -> changePoint.getCard().getId()));
+        Map<Integer, List<MonthlyBalanceRollup>> rollupsByCardId = monthlyBalanceRollupRepository
+                .findByCardIdIn(cardIds)
+                .stream()
+                .collect(Collectors.groupingBy(rollup -> rollup.getCard().getId()));
+
+        for (int cardId : cardIds) {
+            CardCheck check = CardCheck.of(changePointsByCardId.getOrDefault(cardId, List.of()),
+                    rollupsByCardId.getOrDefault(cardId, List.of()), compact);
+            cardsScanned.incrementAndGet();
+            duplicateChangePoints.addAndGet(check.duplicates().size());
+            redundantChangePoints.addAndGet(check.redundant().size());
+            driftedRollups.addAndGet(check.driftedRollups());
+            if (!dryRun && check.needsRepair(compact)) {
+                repair(cardId);
+            }
+        }
+    }
+
+    /**
+     * Checks a card again and repairs it, in the card's write lane and in one transaction.
+     */
+    private void repair(int cardId) {
+        Optional<String> cardNumber = creditCardRepository.findNumberById(cardId);
+        if (cardNumber.isEmpty()) {
+            // Deleted since it was checked
+            return;
+        }
+
+        boolean repaired = cardWriteLanes.runInLane(cardNumber.get(), () -> transactionTemplate.execute(status -> {
+            List<Integer> cardIds = List.of(cardId);
+            CardCheck check = CardCheck.of(balanceHistoryRepository.findAllByCardIdIn(cardIds),
+                    monthlyBalanceRollupRepository.findByCardIdIn(cardIds), compact);
+            if (!check.needsRepair(compact)) {
+                return false;
+            }
+
+            List<BalanceHistory> deletedChangePoints = new ArrayList<>(check.duplicates());
+            if (compact) {
+                deletedChangePoints.addAll(check.redundant());
+            }
+            balanceHistoryRepository.deleteAllInBatch(deletedChangePoints);
+            if (check.driftedRollups() > 0) {
+                monthlyBalanceRollupRepository.deleteByCardIdIn(cardIds);
+                for (MonthlyBalanceRollup rollup : check.expectedRollups()) {
+                    rollup.setCard(creditCardRepository.getReferenceById(cardId));
+                }
+                monthlyBalanceRollupRepository.saveAll(check.expectedRollups());
+            }
+
+            creditCardRepository.incrementVersions(cardIds);
+            balanceSeriesCache.invalidateAfterCommit(cardId);
+            entityVersionCache.invalidateCardsAfterCommit(cardIds);
+            return true;
+        }));
+        if (repaired) {
+            cardsRepaired.incrementAndGet();
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        runner.shutdownNow();
+        pool.shutdownNow();
+    }
+
+    /**
+     * Splits a page of cards in halves until each part has at most CARDS_PER_TASK cards, and checks each part routed to
+     * the shard of the page.
+     */
+    private class CheckCardsTask extends RecursiveAction {
+
+        private final int cardShard;
+
+        private final List<Integer> cardIds;
+
+        CheckCardsTask(int cardShard, List<Integer> cardIds) {
+            this.cardShard = cardShard;
+            this.cardIds = cardIds;
+        }
+
+        @Override
+        protected void compute() {
+            if (cardIds.size() <= CARDS_PER_TASK) {
+                shardRouter.onShard(cardShard, () -> checkCards(cardIds));
+                return;
+            }
+            int middle = cardIds.size() / 2;
+            invokeAll(new CheckCardsTask(cardShard, cardIds.subList(0, middle)),
+                    new CheckCardsTask(cardShard, cardIds.subList(middle, cardIds.size())));
+        }
+    }
+
+    /**
+     * Problems found in the balance history of one card.
+     *
+     * @param duplicates      Change points on the same day as a later written change point.
+     * @param redundant       Change points with the same balance as the change point before them.
+     * @param expectedRollups Rollups recomputed from the change points that remain after the repair, without the
+     *                        duplicates and, when compacting, without the redundant change points.
+     * @param driftedRollups  Number of stored rollups that are missing, differ or are not expected.
+     */
+    record CardCheck(List<BalanceHistory> duplicates, List<BalanceHistory> redundant,
+                     List<MonthlyBalanceRollup> expectedRollups, int driftedRollups) {
+
+        boolean needsRepair(boolean compact) {
+            return !duplicates.isEmpty() || (compact && !redundant.isEmpty()) || driftedRollups > 0;
+        }
+
+        /**
+         * Checks the balance history of a card.
+         *
+         * @param changePoints Change points of the card in date order, and in id order within a day.
+         * @param rollups      Stored rollups of the card.
+         * @param compact      Whether the redundant change points are going to be deleted.
+         */
+        static CardCheck of(List<BalanceHistory> changePoints, List<MonthlyBalanceRollup> rollups, boolean compact) {
+            List<BalanceHistory> duplicates = new ArrayList<>();
+            List<BalanceHistory> redundant = new ArrayList<>();
+            List<BalanceHistory> kept = new ArrayList<>(changePoints.size());
+            for (int i = 0; i < changePoints.size(); i++) {
+                BalanceHistory changePoint = changePoints.get(i);
+                // Defensive, the unique constraint on card and date prevents duplicates where it exists
+                if (i + 1 < changePoints.size() && changePoints.get(i + 1).getDate().equals(changePoint.getDate())) {
+                    duplicates.add(changePoint);
+                    continue;
+                }
+                // The balance before the first change point is 0
+                double previousBalance = kept.isEmpty() ? 0 : kept.get(kept.size() - 1).getBalance();
+                if (changePoint.getBalance() == previousBalance) {
+                    redundant.add(changePoint);
+                    // Deleting it can remove the first or last month of the card, so the rollups are computed
+                    // without it
+                    if (compact) {
+                        continue;
+                    }
+                }
+                kept.add(changePoint);
+            }
+
+            List<MonthlyBalanceRollup> expectedRollups = kept.isEmpty()
+                    ? List.of()
+                    : MonthlyBalanceRollups.compute(0, kept, YearMonth.from(kept.get(0).getDate()));
+            Map<LocalDate, MonthlyBalanceRollup> expectedRollupsByMonth = new HashMap<>();
+            for (MonthlyBalanceRollup expected : expectedRollups) {
+                expectedRollupsByMonth.put(expected.getMonthStart(), expected);
+            }
+            int driftedRollups = 0;
+            Set<LocalDate> storedMonths = new HashSet<>();
+            for (MonthlyBalanceRollup stored : rollups) {
+                storedMonths.add(stored.getMonthStart());
+                MonthlyBalanceRollup expected = expectedRollupsByMonth.get(stored.getMonthStart());
+                if (expected == null || differs(stored, expected)) {
+                    driftedRollups++;
+                }
+            }
+            // Missing rollups
+            for (LocalDate month : expectedRollupsByMonth.keySet()) {
+                if (!storedMonths.contains(month)) {
+                    driftedRollups++;
+                }
+            }
+            return new CardCheck(duplicates, redundant, expectedRollups, driftedRollups);
+        }
+
+        private static boolean differs(MonthlyBalanceRollup stored, MonthlyBalanceRollup expected) {
+            return differs(stored.getMinBalance(), expected.getMinBalance())
+                    || differs(stored.getMaxBalance(), expected.getMaxBalance())
+                    || differs(stored.getBalanceSum(), expected.getBalanceSum())
+                    || differs(stored.getEndBalance(), expected.getEndBalance());
+        }
+
+        private static boolean differs(double stored, double expected) {
+            return Math.abs(stored - expected) > ROLLUP_TOLERANCE * Math.max(1, Math.abs(expected));
+        }
+    }
+}
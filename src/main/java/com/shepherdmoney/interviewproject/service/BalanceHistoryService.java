@@ -0,0 +1,408 @@
+package com.shepherdmoney.interviewproject.service;
+
+import com.shepherdmoney.interviewproject.model.BalanceHistory;
+import com.shepherdmoney.interviewproject.model.MonthlyBalanceRollup;
+import com.shepherdmoney.interviewproject.repository.BalanceHistoryRepository;
+import com.shepherdmoney.interviewproject.repository.CardOwnership;
+import com.shepherdmoney.interviewproject.repository.CreditCardRepository;
+import com.shepherdmoney.interviewproject.repository.MonthlyBalanceRollupRepository;
+import com.shepherdmoney.interviewproject.vo.request.BalanceGranularity;
+import com.shepherdmoney.interviewproject.vo.request.UpdateBalancePayload;
+import com.shepherdmoney.interviewproject.vo.response.BalanceHistoryView;
+import com.shepherdmoney.interviewproject.vo.response.MonthlyBalanceView;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Reads and writes credit card balances stored as sparse change points.
+ * A transaction only writes the change point for its own day and shifts the change points after it, so the cost of
+ * a backdated transaction depends on how many days the balance changed on since, not on how old it is.
+ * The monthly rollups of each card are kept current by the same transaction, from the month of its first transaction
+ * on.
+ */
+@Service
+public class BalanceHistoryService {
+
+    // Number of cards whose change points are loaded together
+    private static final int CARD_BATCH_SIZE = 500;
+
+    @Autowired
+    private BalanceHistoryRepository balanceHistoryRepository;
+    @Autowired
+    private CreditCardRepository creditCardRepository;
+    @Autowired
+    private MonthlyBalanceRollupRepository monthlyBalanceRollupRepository;
+    @Autowired
+    private CardOwnershipCache cardOwnershipCache;
+    @Autowired
+    private BalanceSeriesCache balanceSeriesCache;
+    @Autowired
+    private EntityVersionCache entityVersionCache;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Balance history rows created and updated for each card of a batch, which is the write cost of the update path
+    private DistributionSummary createdRowsSummary;
+    private DistributionSummary updatedRowsSummary;
+
+    @PostConstruct
+    void registerMeters() {
+        createdRowsSummary = DistributionSummary.builder("balance_history.rows.written")
+                .description("Balance history rows written per card per update batch")
+                .baseUnit("rows")
+                .tag("kind", "created")
+                .register(meterRegistry);
+        updatedRowsSummary = DistributionSummary.builder("balance_history.rows.written")
+                .description("Balance history rows written per card per update batch")
+                .baseUnit("rows")
+                .tag("kind", "updated")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Checks which transactions of a batch cannot be applied, without applying any.
+     *
+     * @param transactions Transactions to check.
+     * @return For each transaction, in order, the reason it cannot be applied, or null if it can.
+     */
+    public List<String> findRejections(List<UpdateBalancePayload> transactions) {
+        Map<String, CardOwnership> cardsByNumber = resolveCards(transactions);
+        Instant now = Instant.now();
+        List<String> rejections = new ArrayList<>(transactions.size());
+        for (UpdateBalancePayload transaction : transactions) {
+            rejections.add(findRejection(transaction, cardsByNumber, now));
+        }
+        return rejections;
+    }
+
+    /**
+     * Applies the valid transactions of a batch in one database transaction and skips the invalid ones. Transactions
+     * are grouped by card, the cards of each group of CARD_BATCH_SIZE card numbers are resolved through the card
+     * ownership cache and their change points loaded with a constant number of queries, and each card's transactions
+     * are merged into its change points in date order in a single pass.
+     * Requests apply transactions through CardWriteLanes, which serializes them per card.
+     *
+     * @param transactions Transactions to apply.
+     * @return For each transaction, in order, the reason it was rejected, or null if it was applied.
+     */
+    @Transactional
+    public List<String> applyValidTransactions(List<UpdateBalancePayload> transactions) {
+        Map<String, CardOwnership> cardsByNumber = resolveCards(transactions);
+        Instant now = Instant.now();
+        List<String> rejections = new ArrayList<>(transactions.size());
+        List<UpdateBalancePayload> validTransactions = new ArrayList<>(transactions.size());
+        for (UpdateBalancePayload transaction : transactions) {
+            String rejection = findRejection(transaction, cardsByNumber, now);
+            rejections.add(rejection);
+            if (rejection == null) {
+                validTransactions.add(transaction);
+            }
+        }
+        apply(validTransactions, cardsByNumber);
+        return rejections;
+    }
+
+    /**
+     * Gets the balance of a card at the end of the given date.
+     *
+     * @param cardId Id of the card to get the balance of.
+     * @param date   Date to get the balance on.
+     * @return Balance on that date, 0 if the balance never changed before it.
+     */
+    @Transactional(readOnly = true)
+    public double getBalanceOn(int cardId, LocalDate date) {
+        if (balanceSeriesCache.isEnabled()) {
+            return balanceSeriesCache.get(cardId).balanceOn((int) date.toEpochDay());
+        }
+        List<BalanceHistoryView> lastChange = balanceHistoryRepository.findViewsUpTo(cardId, date,
+                PageRequest.ofSize(1));
+        return lastChange.isEmpty() ? 0 : lastChange.get(0).getBalance();
+    }
+
+    /**
+     * Gets the current balance of a card.
+     *
+     * @param cardId Id of the card to get the balance of.
+     * @return Balance as of today, 0 if the balance never changed.
+     */
+    @Transactional(readOnly = true)
+    public double getCurrentBalance(int cardId) {
+        if (balanceSeriesCache.isEnabled()) {
+            return balanceSeriesCache.get(cardId).currentBalance();
+        }
+        // Transactions cannot be in the future, so the latest change point is at most today
+        return getBalanceOn(cardId, LocalDate.now(ZoneOffset.UTC));
+    }
+
+    /**
+     * Gets the balance series of a card between startDate and endDate, inclusive, with one point per period of the
+     * given granularity. Each point is the balance at the end of its period, or at endDate for the last period.
+     * Only the change points within the returned range are read, or none if the balance series cache is enabled.
+     *
+     * @param cardId      Id of the card to get balances of.
+     * @param startDate   First date to include.
+     * @param endDate     Last date to include.
+     * @param granularity Period each point covers.
+     * @param limit       Maximum number of points to return. Later points are left out.
+     * @return Points of the series in ascending date order.
+     */
+    @Transactional(readOnly = true)
+    public List<BalanceHistoryView> getBalanceSeries(int cardId, LocalDate startDate, LocalDate endDate,
+                                                     BalanceGranularity granularity, int limit) {
+        List<BalanceHistoryView> series = new ArrayList<>();
+        for (LocalDate date = startDate; series.size() < limit && !date.isAfter(endDate); ) {
+            LocalDate pointDate = granularity.endOfPeriod(date);
+            if (pointDate.isAfter(endDate)) {
+                pointDate = endDate;
+            }
+            series.add(new BalanceHistoryView(pointDate, 0));
+            date = pointDate.plusDays(1);
+        }
+        if (series.isEmpty()) {
+            return series;
+        }
+
+        if (balanceSeriesCache.isEnabled()) {
+            BalanceSeriesCache.BalanceSeries cachedSeries = balanceSeriesCache.get(cardId);
+            for (BalanceHistoryView point : series) {
+                point.setBalance(cachedSeries.balanceOn((int) point.getDate().toEpochDay()));
+            }
+            return series;
+        }
+
+        LocalDate firstPointDate = series.get(0).getDate();
+        LocalDate lastPointDate = series.get(series.size() - 1).getDate();
+        double balance = getBalanceOn(cardId, firstPointDate);
+        Iterator<BalanceHistoryView> changes = balanceHistoryRepository
+                .findViewsBetween(cardId, firstPointDate, lastPointDate)
+                .iterator();
+        BalanceHistoryView nextChange = changes.hasNext() ? changes.next() : null;
+
+        for (BalanceHistoryView point : series) {
+            while (nextChange != null && !nextChange.getDate().isAfter(point.getDate())) {
+                balance = nextChange.getBalance();
+                nextChange = changes.hasNext() ? changes.next() : null;
+            }
+            point.setBalance(balance);
+        }
+        return series;
+    }
+
+    /**
+     * Gets the minimum, maximum, average and end balance of a card for each month from startMonth through endMonth,
+     * from the monthly rollups. Months after the current one are left out, and the current month only covers the days
+     * up to today.
+     *
+     * @param cardId     Id of the card to get balances of.
+     * @param startMonth First month to include.
+     * @param endMonth   Last month to include.
+     * @return Balances of each month in month order.
+     */
+    @Transactional(readOnly = true)
+    public List<MonthlyBalanceView> getMonthlyBalances(int cardId, YearMonth startMonth, YearMonth endMonth) {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        YearMonth currentMonth = YearMonth.from(today);
+        YearMonth lastMonth = endMonth.isAfter(currentMonth) ? currentMonth : endMonth;
+        List<MonthlyBalanceView> months = new ArrayList<>();
+        if (startMonth.isAfter(lastMonth)) {
+            return months;
+        }
+
+        // Months without a rollup keep the end balance of the rollup before them
+        List<MonthlyBalanceRollup> rollupBefore = monthlyBalanceRollupRepository.findBefore(cardId,
+                startMonth.atDay(1), PageRequest.ofSize(1));
+        double balance = rollupBefore.isEmpty() ? 0 : rollupBefore.get(0).getEndBalance();
+        Iterator<MonthlyBalanceRollup> rollups = monthlyBalanceRollupRepository
+                .findBetween(cardId, startMonth.atDay(1), lastMonth.atDay(1))
+                .iterator();
+        MonthlyBalanceRollup nextRollup = rollups.hasNext() ? rollups.next() : null;
+
+        for (YearMonth month = startMonth; !month.isAfter(lastMonth); month = month.plusMonths(1)) {
+            if (nextRollup == null || !YearMonth.from(nextRollup.getMonthStart()).equals(month)) {
+                months.add(new MonthlyBalanceView(month, balance, balance, balance, balance));
+                continue;
+            }
+
+            // Transactions cannot be in the future, so the days of the current month after today all have the end
+            // balance, which min and max already include
+            int days = month.equals(currentMonth) ? today.getDayOfMonth() : month.lengthOfMonth();
+            double sum = nextRollup.getBalanceSum() - nextRollup.getEndBalance() * (month.lengthOfMonth() - days);
+            months.add(new MonthlyBalanceView(month, nextRollup.getMinBalance(), nextRollup.getMaxBalance(),
+                    sum / days, nextRollup.getEndBalance()));
+            balance = nextRollup.getEndBalance();
+            nextRollup = rollups.hasNext() ? rollups.next() : null;
+        }
+        return months;
+    }
+
+    /**
+     * Converts an instant to the UTC calendar day it falls on.
+     */
+    public static LocalDate toDate(Instant instant) {
+        return LocalDate.ofInstant(instant, ZoneOffset.UTC);
+    }
+
+    /**
+     * Finds the cards the given transactions refer to, CARD_BATCH_SIZE card numbers at a time.
+     *
+     * @return Card by card number. Card numbers that do not exist are left out.
+     */
+    private Map<String, CardOwnership> resolveCards(List<UpdateBalancePayload> transactions) {
+        Set<String> cardNumberSet = new LinkedHashSet<>();
+        for (UpdateBalancePayload transaction : transactions) {
+            if (transaction.getCreditCardNumber() != null) {
+                cardNumberSet.add(transaction.getCreditCardNumber());
+            }
+        }
+
+        List<String> cardNumbers = new ArrayList<>(cardNumberSet);
+        Map<String, CardOwnership> cardsByNumber = new HashMap<>();
+        for (int start = 0; start < cardNumbers.size(); start += CARD_BATCH_SIZE) {
+            cardsByNumber.putAll(cardOwnershipCache.getAll(
+                    cardNumbers.subList(start, Math.min(start + CARD_BATCH_SIZE, cardNumbers.size()))));
+        }
+        return cardsByNumber;
+    }
+
+    /**
+     * Checks whether a transaction can be applied.
+     *
+     * @return Reason the transaction cannot be applied, or null if it can.
+     */
+    private static String findRejection(UpdateBalancePayload transaction, Map<String, CardOwnership> cardsByNumber,
+                                        Instant now) {
+        if (transaction.getCreditCardNumber() == null || transaction.getTransactionTime() == null) {
+            return "Transaction is missing its card number or time.";
+        }
+        if (transaction.getTransactionTime().isAfter(now)) {
+            return "Transaction is in the future.";
+        }
+        if (!cardsByNumber.containsKey(transaction.getCreditCardNumber())) {
+            return "Transaction refers to a credit card that does not exist.";
+        }
+        return null;
+    }
+
+    /**
+     * Applies valid transactions, CARD_BATCH_SIZE cards at a time.
+     */
+    private void apply(List<UpdateBalancePayload> transactions, Map<String, CardOwnership> cardsByNumber) {
+        Map<String, List<UpdateBalancePayload>> transactionsByCardNumber = new LinkedHashMap<>();
+        for (UpdateBalancePayload transaction : transactions) {
+            transactionsByCardNumber
+                    .computeIfAbsent(transaction.getCreditCardNumber(), cardNumber -> new ArrayList<>())
+                    .add(transaction);
+        }
+
+        List<CardOwnership> cards = transactionsByCardNumber.keySet().stream().map(cardsByNumber::get).toList();
+        for (int start = 0; start < cards.size(); start += CARD_BATCH_SIZE) {
+            applyToCards(cards.subList(start, Math.min(start + CARD_BATCH_SIZE, cards.size())),
+                    transactionsByCardNumber);
+        }
+    }
+
+    /**
+     * Merges the transactions of each card into its change points, saves the created change points and recomputes
+     * the monthly rollups of each card from the month of its first transaction on.
+     */
+    private void applyToCards(List<CardOwnership> cards,
+                              Map<String, List<UpdateBalancePayload>> transactionsByCardNumber) {
+        List<Integer> cardIds = new ArrayList<>();
+        LocalDate firstTransactionDate = LocalDate.MAX;
+        for (CardOwnership card : cards) {
+            cardIds.add(card.cardId());
+            List<UpdateBalancePayload> cardTransactions = transactionsByCardNumber.get(card.cardNumber());
+            cardTransactions.sort(Comparator.comparing(UpdateBalancePayload::getTransactionTime));
+            LocalDate cardFirstDate = toDate(cardTransactions.get(0).getTransactionTime());
+            if (cardFirstDate.isBefore(firstTransactionDate)) {
+                firstTransactionDate = cardFirstDate;
+            }
+        }
+
+        // Change points are loaded from the start of the month of the first transaction, so that the rollup of that
+        // month can be recomputed as well
+        LocalDate firstMonthStart = firstTransactionDate.withDayOfMonth(1);
+        Map<Integer, Double> previousBalanceByCardId = new HashMap<>();
+        for (BalanceHistory previousChange :
+                balanceHistoryRepository.findLastChangesBefore(cardIds, firstMonthStart)) {
+            previousBalanceByCardId.put(previousChange.getCard().getId(), previousChange.getBalance());
+        }
+        Map<Integer, List<BalanceHistory>> changePointsByCardId = balanceHistoryRepository
+                .findChangesFrom(cardIds, firstMonthStart)
+                .stream()
+                .collect(Collectors.groupingBy(changePoint -> changePoint.getCard().getId()));
+        Map<Integer, Map<LocalDate, MonthlyBalanceRollup>> rollupsByCardId = new HashMap<>();
+        for (MonthlyBalanceRollup rollup : monthlyBalanceRollupRepository.findFrom(cardIds, firstMonthStart)) {
+            rollupsByCardId.computeIfAbsent(rollup.getCard().getId(), cardId -> new HashMap<>())
+                    .put(rollup.getMonthStart(), rollup);
+        }
+
+        List<BalanceHistory> createdChangePoints = new ArrayList<>();
+        List<MonthlyBalanceRollup> createdRollups = new ArrayList<>();
+        for (CardOwnership card : cards) {
+            List<UpdateBalancePayload> cardTransactions = transactionsByCardNumber.get(card.cardNumber());
+            long[] transactionDays = new long[cardTransactions.size()];
+            double[] amounts = new double[cardTransactions.size()];
+            for (int i = 0; i < cardTransactions.size(); i++) {
+                transactionDays[i] = toDate(cardTransactions.get(i).getTransactionTime()).toEpochDay();
+                amounts[i] = cardTransactions.get(i).getTransactionAmount();
+            }
+
+            List<BalanceHistory> cardChangePoints = changePointsByCardId.getOrDefault(card.cardId(), List.of());
+            List<BalanceHistory> cardCreatedChangePoints = BalanceHistoryMerger.merge(
+                    creditCardRepository.getReferenceById(card.cardId()),
+                    previousBalanceByCardId.getOrDefault(card.cardId(), 0.0),
+                    cardChangePoints, transactionDays, amounts, cardTransactions.size());
+            createdChangePoints.addAll(cardCreatedChangePoints);
+
+            // Every change point from the card's first transaction on is shifted by the merge
+            int updatedRows = 0;
+            for (BalanceHistory changePoint : cardChangePoints) {
+                if (changePoint.getDate().toEpochDay() >= transactionDays[0]) {
+                    updatedRows++;
+                }
+            }
+            createdRowsSummary.record(cardCreatedChangePoints.size());
+            updatedRowsSummary.record(updatedRows);
+            balanceSeriesCache.applyAfterCommit(card.cardId(), transactionDays, amounts);
+
+            List<BalanceHistory> mergedChangePoints = new ArrayList<>(cardChangePoints);
+            mergedChangePoints.addAll(cardCreatedChangePoints);
+            mergedChangePoints.sort(Comparator.comparing(BalanceHistory::getDate));
+            List<MonthlyBalanceRollup> computedRollups = MonthlyBalanceRollups.compute(
+                    previousBalanceByCardId.getOrDefault(card.cardId(), 0.0), mergedChangePoints,
+                    YearMonth.from(LocalDate.ofEpochDay(transactionDays[0])));
+            Map<LocalDate, MonthlyBalanceRollup> cardRollups = rollupsByCardId.getOrDefault(card.cardId(), Map.of());
+            for (MonthlyBalanceRollup computedRollup : computedRollups) {
+                MonthlyBalanceRollup rollup = cardRollups.get(computedRollup.getMonthStart());
+                if (rollup == null) {
+                    computedRollup.setCard(creditCardRepository.getReferenceById(card.cardId()));
+                    createdRollups.add(computedRollup);
+                    continue;
+                }
+                rollup.setMinBalance(computedRollup.getMinBalance());
+                rollup.setMaxBalance(computedRollup.getMaxBalance());
+                rollup.setBalanceSum(computedRollup.getBalanceSum());
+                rollup.setEndBalance(computedRollup.getEndBalance());
+            }
+        }
+
+        // Updated change points and rollups are managed entities and are flushed with the created ones in JDBC batches
+        balanceHistoryRepository.saveAll(createdChangePoints);
+        monthlyBalanceRollupRepository.saveAll(createdRollups);
+        creditCardRepository.incrementVersions(cardIds);
+        entityVersionCache.invalidateCardsAfterCommit(cardIds);
+    }
+}
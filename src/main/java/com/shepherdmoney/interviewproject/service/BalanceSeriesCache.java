@@ -0,0 +1,241 @@
+package com.shepherdmoney.interviewproject.service;
+
+import com.shepherdmoney.interviewproject.repository.BalanceHistoryRepository;
+import com.shepherdmoney.interviewproject.vo.response.BalanceHistoryView;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Optional bounded in-process cache of the change points of credit cards, stored as primitive arrays.
+ * Least recently used cards are evicted once the cache is full. The update path applies the transactions of a card to
+ * its cached series once they commit, so a card that is written to often is not reloaded after every update.
+ * Deleting or compacting change points invalidates the card instead, and it is reloaded on its next read.
+ */
+@Component
+public class BalanceSeriesCache {
+
+    // Number of stripes of invalidation counters, must be a power of 2
+    private static final int INVALIDATION_STRIPES = 64;
+
+    @Autowired
+    private BalanceHistoryRepository balanceHistoryRepository;
+
+    private final boolean enabled;
+
+    private final Map<Integer, BalanceSeries> seriesByCardId;
+
+    // Incremented by every invalidation of a card in the stripe, so that a load racing with an invalidation of the
+    // same card does not cache a stale series
+    private final long[] invalidationCounts = new long[INVALIDATION_STRIPES];
+
+    // Number of uncommitted database transactions that change each card. A load of such a card may or may not see
+    // their changes, so it is not cached
+    private final Map<Integer, Integer> pendingUpdatesByCardId = new HashMap<>();
+
+    public BalanceSeriesCache(@Value("${balance-series-cache.enabled:false}") boolean enabled,
+                              @Value("${balance-series-cache.max-cards:10000}") int maxCards) {
+        this.enabled = enabled;
+        this.seriesByCardId = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, BalanceSeries> eldest) {
+                return size() > maxCards;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Gets the change points of a card, loading them if they are not cached.
+     *
+     * @param cardId Id of the card.
+     * @return Change points of the card.
+     */
+    public BalanceSeries get(int cardId) {
+        long invalidationCountBeforeLoad;
+        synchronized (this) {
+            BalanceSeries series = seriesByCardId.get(cardId);
+            if (series != null) {
+                return series;
+            }
+            invalidationCountBeforeLoad = invalidationCounts[stripe(cardId)];
+        }
+
+        BalanceSeries series = BalanceSeries.of(balanceHistoryRepository.findAllViews(cardId));
+        synchronized (this) {
+            if (invalidationCounts[stripe(cardId)] == invalidationCountBeforeLoad
+                    && !pendingUpdatesByCardId.containsKey(cardId)) {
+                seriesByCardId.put(cardId, series);
+            }
+        }
+        return series;
+    }
+
+    /**
+     * Removes a card from the cache once the current transaction commits, or right away if there is none.
+     */
+    public void invalidateAfterCommit(int cardId) {
+        if (!enabled) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidate(cardId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                invalidate(cardId);
+            }
+        });
+    }
+
+    /**
+     * Applies transactions to the cached series of a card once the current database transaction commits, or removes
+     * the card from the cache right away if there is none.
+     *
+     * @param cardId          Id of the card.
+     * @param transactionDays Epoch day of each transaction, in ascending order.
+     * @param amounts         Amount of each transaction.
+     */
+    public void applyAfterCommit(int cardId, long[] transactionDays, double[] amounts) {
+        if (!enabled) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidate(cardId);
+            return;
+        }
+        synchronized (this) {
+            pendingUpdatesByCardId.merge(cardId, 1, Integer::sum);
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                synchronized (BalanceSeriesCache.this) {
+                    pendingUpdatesByCardId.computeIfPresent(cardId, (id, count) -> count == 1 ? null : count - 1);
+                    // A load that started before this transaction did not see its changes
+                    invalidationCounts[stripe(cardId)]++;
+                    BalanceSeries series = seriesByCardId.get(cardId);
+                    if (series == null) {
+                        return;
+                    }
+                    // A cached series was loaded before the transaction started changing the card
+                    if (status == STATUS_COMMITTED) {
+                        seriesByCardId.put(cardId, series.withTransactions(transactionDays, amounts));
+                    } else if (status == STATUS_UNKNOWN) {
+                        seriesByCardId.remove(cardId);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes a card from the cache.
+     */
+    public synchronized void invalidate(int cardId) {
+        invalidationCounts[stripe(cardId)]++;
+        seriesByCardId.remove(cardId);
+    }
+
+    private static int stripe(int cardId) {
+        return cardId & (INVALIDATION_STRIPES - 1);
+    }
+
+    /**
+     * Change points of a card as parallel arrays sorted by day. Instances are immutable.
+     */
+    public static final class BalanceSeries {
+
+        private final int[] epochDays;
+
+        private final double[] balances;
+
+        private BalanceSeries(int[] epochDays, double[] balances) {
+            this.epochDays = epochDays;
+            this.balances = balances;
+        }
+
+        /**
+         * Creates a series from change points in ascending date order.
+         */
+        static BalanceSeries of(List<BalanceHistoryView> changePoints) {
+            int[] epochDays = new int[changePoints.size()];
+            double[] balances = new double[changePoints.size()];
+            for (int i = 0; i < changePoints.size(); i++) {
+                epochDays[i] = (int) changePoints.get(i).getDate().toEpochDay();
+                balances[i] = changePoints.get(i).getBalance();
+            }
+            return new BalanceSeries(epochDays, balances);
+        }
+
+        /**
+         * Creates the series that results from applying transactions to this one. Each transaction adds its amount to
+         * the balance of its day and of every day after it, the same way BalanceHistoryMerger changes the stored
+         * change points.
+         *
+         * @param transactionDays Epoch day of each transaction, in ascending order.
+         * @param amounts         Amount of each transaction.
+         */
+        BalanceSeries withTransactions(long[] transactionDays, double[] amounts) {
+            int[] newEpochDays = new int[epochDays.length + transactionDays.length];
+            double[] newBalances = new double[newEpochDays.length];
+            int size = 0;
+            // Sum of the transactions applied so far, which every later balance includes
+            double appliedAmount = 0;
+            int next = 0;
+            int nextTransaction = 0;
+            while (next < epochDays.length || nextTransaction < transactionDays.length) {
+                int day = nextTransaction < transactionDays.length
+                        && (next == epochDays.length || transactionDays[nextTransaction] <= epochDays[next])
+                        ? (int) transactionDays[nextTransaction]
+                        : epochDays[next];
+                while (nextTransaction < transactionDays.length && transactionDays[nextTransaction] == day) {
+                    appliedAmount += amounts[nextTransaction++];
+                }
+                // A transaction day without a change point starts from the balance of the change point before it
+                double balanceBefore = next < epochDays.length && epochDays[next] == day
+                        ? balances[next++]
+                        : next == 0 ? 0 : balances[next - 1];
+                newEpochDays[size] = day;
+                newBalances[size++] = balanceBefore + appliedAmount;
+            }
+            return new BalanceSeries(Arrays.copyOf(newEpochDays, size), Arrays.copyOf(newBalances, size));
+        }
+
+        /**
+         * Gets the balance at the end of the given day.
+         *
+         * @param epochDay Day to get the balance on, as days since 1970-01-01.
+         * @return Balance on that day, 0 if the balance never changed before it.
+         */
+        public double balanceOn(int epochDay) {
+            int index = Arrays.binarySearch(epochDays, epochDay);
+            if (index >= 0) {
+                return balances[index];
+            }
+            // Not a change day, so the balance is the one of the change point before the insertion point
+            int insertionPoint = -index - 1;
+            return insertionPoint == 0 ? 0 : balances[insertionPoint - 1];
+        }
+
+        /**
+         * Gets the balance as of the latest change point.
+         */
+        public double currentBalance() {
+            return balances.length == 0 ? 0 : balances[balances.length - 1];
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.shepherdmoney.interviewproject.service;
+
+import com.shepherdmoney.interviewproject.repository.CardOwnership;
+import com.shepherdmoney.interviewproject.repository.CreditCardRepository;
+import com.shepherdmoney.interviewproject.sharding.ShardRouter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * Bounded in-process cache from card number to the ids of the card and its owner.
+ * Least recently used entries are evicted once the cache is full. Card numbers that do not exist are not cached.
+ */
+@Component
+public class CardOwnershipCache {
+
+    @Autowired
+    private CreditCardRepository creditCardRepository;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    private final Map<String, CardOwnership> ownershipByCardNumber;
+
+    // Incremented by every invalidation, so that a load racing with an invalidation does not cache a stale entry
+    private long invalidationCount = 0;
+
+    public CardOwnershipCache(@Value("${card-ownership-cache.max-size:100000}") int maxSize) {
+        this.ownershipByCardNumber = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CardOwnership> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Gets the ids of the card with the given number and its owner.
+     *
+     * @param cardNumber Number of the card.
+     * @return Ownership of the card, empty if no card has that number.
+     */
+    public Optional<CardOwnership> get(String cardNumber) {
+        return Optional.ofNullable(getAll(List.of(cardNumber)).get(cardNumber));
+    }
+
+    /**
+     * Gets the ownership of each of the given card numbers, loading all missing ones with a single query per shard.
+     *
+     * @param cardNumbers Numbers of the cards.
+     * @return Ownership by card number. Card numbers that do not exist are left out.
+     */
+    public Map<String, CardOwnership> getAll(Collection<String> cardNumbers) {
+        Map<String, CardOwnership> ownerships = new HashMap<>();
+        List<String> missingCardNumbers = new ArrayList<>();
+        long invalidationCountBeforeLoad;
+        synchronized (this) {
+            for (String cardNumber : cardNumbers) {
+                CardOwnership ownership = ownershipByCardNumber.get(cardNumber);
+                if (ownership != null) {
+                    ownerships.put(cardNumber, ownership);
+                } else {
+                    missingCardNumbers.add(cardNumber);
+                }
+            }
+            invalidationCountBeforeLoad = invalidationCount;
+        }
+        if (missingCardNumbers.isEmpty()) {
+            return ownerships;
+        }
+
+        List<CardOwnership> loadedOwnerships = new ArrayList<>(missingCardNumbers.size());
+        shardRouter.groupByShard(missingCardNumbers, cardNumber -> cardNumber).forEach((shard, shardCardNumbers) ->
+                loadedOwnerships.addAll(shardRouter.onShard(shard,
+                        () -> creditCardRepository.findOwnershipsByNumberIn(shardCardNumbers))));
+        synchronized (this) {
+            for (CardOwnership ownership : loadedOwnerships) {
+                ownerships.put(ownership.cardNumber(), ownership);
+                if (invalidationCount == invalidationCountBeforeLoad) {
+                    ownershipByCardNumber.put(ownership.cardNumber(), ownership);
+                }
+            }
+        }
+        return ownerships;
+    }
+
+    /**
+     * Removes the entry of a card number, for example after a card with that number was added.
+     */
+    public synchronized void invalidate(String cardNumber) {
+        invalidationCount++;
+        ownershipByCardNumber.remove(cardNumber);
+    }
+
+    /**
+     * Removes the entries of all cards owned by a user, for example after the user was deleted.
+     */
+    public synchronized void invalidateOwner(int ownerId) {
+        invalidationCount++;
+        ownershipByCardNumber.values().removeIf(ownership -> ownership.ownerId() == ownerId);
+    }
+}
@@ -0,0 +1,173 @@
+package com.shepherdmoney.interviewproject.service;
+
+import com.shepherdmoney.interviewproject.sharding.ShardRouter;
+import com.shepherdmoney.interviewproject.vo.request.UpdateBalancePayload;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Serializes balance updates per card without a global lock. Each card number is hashed to one of a fixed number of
+ * lanes, and each lane applies its updates on a single thread, so updates to the same card never run concurrently
+ * while updates to cards in different lanes run in parallel. A batch touching many cards is split by lane, and the
+ * parts are applied in parallel and joined before returning.
+ * <p>
+ * Lane queues are unbounded, but every caller waits for its own parts, so a queue never holds more parts than there
+ * are request threads. With sharding, parts are also split by shard, and each part runs routed to its shard.
+ * <p>
+ * Each part is committed in its own database transaction, so a batch is not atomic across cards. If a part fails,
+ * only its transactions are rolled back, and they are reported as not applied.
+ */
+@Slf4j
+@Component
+public class CardWriteLanes {
+
+    // Reason given for the transactions of a part that failed and was rolled back
+    public static final String PART_FAILED = "Transaction was not applied because the update of its card failed, "
+            + "it can be retried.";
+
+    @Autowired
+    private BalanceHistoryService balanceHistoryService;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    private final ExecutorService[] lanes;
+
+    public CardWriteLanes(@Value("${card-write-lanes.count:0}") int laneCount) {
+        // Default to one lane per core
+        int count = laneCount > 0 ? laneCount : Runtime.getRuntime().availableProcessors();
+        this.lanes = new ExecutorService[count];
+        for (int i = 0; i < count; i++) {
+            String threadName = "card-write-lane-" + i;
+            lanes[i] = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, threadName));
+        }
+    }
+
+    /**
+     * Applies a batch of transactions through the lanes of their cards. If any transaction is invalid, none are
+     * applied. Otherwise the batch is applied like applyValidTransactions, so if the part of a lane fails or a card
+     * is deleted while the batch is applied, the transactions of the other cards are still applied.
+     *
+     * @param transactions Transactions to apply.
+     * @return For each transaction, in order, the reason it was not applied, or null if it was applied.
+     * @throws InvalidTransactionException If any transaction is invalid or refers to a card that does not exist.
+     */
+    public List<String> applyTransactions(List<UpdateBalancePayload> transactions) {
+        for (String rejection : balanceHistoryService.findRejections(transactions)) {
+            if (rejection != null) {
+                throw new InvalidTransactionException(rejection);
+            }
+        }
+        return applyValidTransactions(transactions);
+    }
+
+    /**
+     * Applies the valid transactions of a batch through the lanes of their cards and skips the invalid ones. The
+     * transactions of a part that failed are rolled back and rejected with PART_FAILED, the other parts are still
+     * committed.
+     *
+     * @param transactions Transactions to apply.
+     * @return For each transaction, in order, the reason it was rejected, or null if it was applied.
+     */
+    public List<String> applyValidTransactions(List<UpdateBalancePayload> transactions) {
+        Map<Part, List<Integer>> indexesByPart = new LinkedHashMap<>();
+        for (int i = 0; i < transactions.size(); i++) {
+            String cardNumber = transactions.get(i).getCreditCardNumber();
+            indexesByPart.computeIfAbsent(new Part(laneOf(cardNumber), shardRouter.shardOf(cardNumber)),
+                    part -> new ArrayList<>()).add(i);
+        }
+
+        Map<Part, Future<List<String>>> partRejections = new LinkedHashMap<>();
+        indexesByPart.forEach((part, indexes) -> {
+            List<UpdateBalancePayload> partTransactions = indexes.stream().map(transactions::get).toList();
+            partRejections.put(part, lanes[part.lane()].submit(() -> shardRouter.onShard(part.shard(),
+                    () -> balanceHistoryService.applyValidTransactions(partTransactions))));
+        });
+
+        String[] rejections = new String[transactions.size()];
+        partRejections.forEach((part, future) -> {
+            List<Integer> indexes = indexesByPart.get(part);
+            List<String> rejectionsOfPart = joinPart(future, part, indexes.size());
+            for (int i = 0; i < indexes.size(); i++) {
+                rejections[indexes.get(i)] = rejectionsOfPart.get(i);
+            }
+        });
+        return Arrays.asList(rejections);
+    }
+
+    /**
+     * Runs a task in the lane of a card, after the updates already queued for the card, and waits for it. The task
+     * runs routed to the shard of the card.
+     *
+     * @param cardNumber Number of the card.
+     * @param task       Task that writes to the card.
+     * @return Result of the task.
+     */
+    public <T> T runInLane(String cardNumber, Supplier<T> task) {
+        int shard = shardRouter.shardOf(cardNumber);
+        return join(lanes[laneOf(cardNumber)].submit(() -> shardRouter.onShard(shard, task)));
+    }
+
+    private int laneOf(String cardNumber) {
+        return cardNumber == null ? 0 : Math.floorMod(cardNumber.hashCode(), lanes.length);
+    }
+
+    /**
+     * Part of a batch that is applied in one lane on one shard.
+     */
+    private record Part(int lane, int shard) {
+    }
+
+    /**
+     * Waits for the part of a batch, and rejects all of its transactions if it failed.
+     */
+    private static List<String> joinPart(Future<List<String>> future, Part part, int size) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            // The part may still be committed, so its outcome is unknown
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for balance updates", e);
+        } catch (ExecutionException e) {
+            log.warn("Failed to apply {} balance updates in lane {} on shard {}", size, part.lane(), part.shard(),
+                    e.getCause());
+            return Collections.nCopies(size, PART_FAILED);
+        }
+    }
+
+    private static <T> T join(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for balance updates", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Balance update failed", e.getCause());
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        for (ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+    }
+}
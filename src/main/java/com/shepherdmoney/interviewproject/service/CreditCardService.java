@@ -0,0 +1,108 @@
+package com.shepherdmoney.interviewproject.service;
+
+import com.shepherdmoney.interviewproject.model.CreditCard;
+import com.shepherdmoney.interviewproject.repository.CreditCardRepository;
+import com.shepherdmoney.interviewproject.repository.UserRepository;
+import com.shepherdmoney.interviewproject.sharding.ShardRouter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Optional;
+
+/**
+ * Adds credit cards to users. A new card and the version bump of its user are written in one transaction, so the
+ * user's card list never changes without its version.
+ * <p>
+ * With sharding, the card is written to its shard and the user's version is bumped in the directory right after the
+ * card is committed, so a failure in between can leave the version unchanged until the next change to the user.
+ */
+@Service
+public class CreditCardService {
+
+    @Autowired
+    private CreditCardRepository creditCardRepository;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private CardOwnershipCache cardOwnershipCache;
+    @Autowired
+    private EntityVersionCache entityVersionCache;
+    @Autowired
+    private ShardRouter shardRouter;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    /**
+     * Adds a card with no balance changes to a user.
+     *
+     * @param userId       Id of the user.
+     * @param issuanceBank Bank that issued the card.
+     * @param cardNumber   Number of the card.
+     * @return Id of the new card, empty if the user does not exist or a card with the number exists already.
+     */
+    public Optional<Integer> addCreditCard(int userId, String issuanceBank, String cardNumber) {
+        Optional<Integer> cardId;
+        if (!shardRouter.isEnabled()) {
+            try {
+                cardId = transactionTemplate.execute(status -> {
+                    if (!userRepository.existsById(userId)) {
+                        return Optional.empty();
+                    }
+                    Optional<Integer> newCardId = insertCard(userId, issuanceBank, cardNumber);
+                    newCardId.ifPresent(id -> bumpUserVersion(userId));
+                    return newCardId;
+                });
+            } catch (DataIntegrityViolationException e) {
+                // A concurrent request added a card with the number, or deleted the user, after they were checked
+                return Optional.empty();
+            }
+        } else {
+            if (!userRepository.existsById(userId)) {
+                return Optional.empty();
+            }
+            try {
+                // The card is stored in the shard of its number, where card numbers are unique
+                cardId = shardRouter.onShard(shardRouter.shardOf(cardNumber),
+                        () -> transactionTemplate.execute(status -> insertCard(userId, issuanceBank, cardNumber)));
+            } catch (DataIntegrityViolationException e) {
+                // A concurrent request added a card with the number after it was checked
+                return Optional.empty();
+            }
+            cardId.ifPresent(id -> bumpUserVersion(userId));
+        }
+
+        cardId.ifPresent(id -> cardOwnershipCache.invalidate(cardNumber));
+        return cardId;
+    }
+
+    /**
+     * Inserts a card unless a card with its number exists, in the current transaction. The card is flushed, so a card
+     * with the same number inserted concurrently fails the insert here.
+     */
+    private Optional<Integer> insertCard(int userId, String issuanceBank, String cardNumber) {
+        if (creditCardRepository.existsByNumber(cardNumber)) {
+            return Optional.empty();
+        }
+
+        CreditCard newCreditCard = new CreditCard();
+        newCreditCard.setIssuanceBank(issuanceBank);
+        newCreditCard.setNumber(cardNumber);
+        // Already verified the user exists. The owning side of the relationship is the card, so the user itself does
+        // not need to be loaded or saved
+        newCreditCard.setOwner(userRepository.getReferenceById(userId));
+        // New card has no balance changes yet, so its balance is 0
+        newCreditCard.setBalanceHistory(new ArrayList<>());
+        return Optional.of(creditCardRepository.saveAndFlush(newCreditCard).getId());
+    }
+
+    /**
+     * Bumps the version of a user whose card list changed, in the current transaction if there is one.
+     */
+    private void bumpUserVersion(int userId) {
+        userRepository.incrementVersion(userId);
+        entityVersionCache.invalidateUserAfterCommit(userId);
+    }
+}
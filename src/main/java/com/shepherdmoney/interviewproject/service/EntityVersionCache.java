@@ -0,0 +1,124 @@
+package com.shepherdmoney.interviewproject.service;
+
+import com.shepherdmoney.interviewproject.repository.CreditCardRepository;
+import com.shepherdmoney.interviewproject.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Bounded in-process cache of the version counters of users and credit cards, used as ETags so that unchanged
+ * responses can be answered with 304 without reading the database.
+ * Least recently used entries are evicted once the cache is full. Users and cards that do not exist are not cached.
+ */
+@Component
+public class EntityVersionCache {
+
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private CreditCardRepository creditCardRepository;
+
+    private final Map<Integer, Long> versionByUserId;
+
+    private final Map<Integer, Long> versionByCardId;
+
+    // Incremented by every invalidation, so that a load racing with an invalidation does not cache a stale version
+    private long invalidationCount = 0;
+
+    public EntityVersionCache(@Value("${entity-version-cache.max-size:100000}") int maxSize) {
+        this.versionByUserId = lruMap(maxSize);
+        this.versionByCardId = lruMap(maxSize);
+    }
+
+    /**
+     * Gets the version of a user, which changes whenever a card is added to or deleted from the user.
+     *
+     * @return Version of the user, empty if the user does not exist.
+     */
+    public OptionalLong getUserVersion(int userId) {
+        return get(versionByUserId, userId, () -> userRepository.findVersionById(userId));
+    }
+
+    /**
+     * Gets the version of a card, which changes whenever the card's balance changes.
+     *
+     * @return Version of the card, empty if the card does not exist.
+     */
+    public OptionalLong getCardVersion(int cardId) {
+        return get(versionByCardId, cardId, () -> creditCardRepository.findVersionById(cardId));
+    }
+
+    /**
+     * Removes the version of a user once the current transaction commits, or right away if there is none.
+     */
+    public void invalidateUserAfterCommit(int userId) {
+        afterCommit(() -> {
+            synchronized (this) {
+                invalidationCount++;
+                versionByUserId.remove(userId);
+            }
+        });
+    }
+
+    /**
+     * Removes the versions of cards once the current transaction commits, or right away if there is none.
+     */
+    public void invalidateCardsAfterCommit(Collection<Integer> cardIds) {
+        afterCommit(() -> {
+            synchronized (this) {
+                invalidationCount++;
+                versionByCardId.keySet().removeAll(cardIds);
+            }
+        });
+    }
+
+    private OptionalLong get(Map<Integer, Long> versions, int id, Supplier<Optional<Long>> loader) {
+        long invalidationCountBeforeLoad;
+        synchronized (this) {
+            Long version = versions.get(id);
+            if (version != null) {
+                return OptionalLong.of(version);
+            }
+            invalidationCountBeforeLoad = invalidationCount;
+        }
+
+        Optional<Long> loadedVersion = loader.get();
+        if (loadedVersion.isEmpty()) {
+            return OptionalLong.empty();
+        }
+        synchronized (this) {
+            if (invalidationCount == invalidationCountBeforeLoad) {
+                versions.put(id, loadedVersion.get());
+            }
+        }
+        return OptionalLong.of(loadedVersion.get());
+    }
+
+    private static void afterCommit(Runnable invalidation) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidation.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                invalidation.run();
+            }
+        });
+    }
+
+    private static Map<Integer, Long> lruMap(int maxSize) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Long> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+}
@@ -0,0 +1,11 @@
+package com.shepherdmoney.interviewproject.service;
+
+/**
+ * Thrown when a balance update cannot be applied, for example because its card does not exist.
+ */
+public class InvalidTransactionException extends RuntimeException {
+
+    public InvalidTransactionException(String message) {
+        super(message);
+    }
+}
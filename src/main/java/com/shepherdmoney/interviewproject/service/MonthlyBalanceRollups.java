@@ -0,0 +1,77 @@
+package com.shepherdmoney.interviewproject.service;
+
+import com.shepherdmoney.interviewproject.model.BalanceHistory;
+import com.shepherdmoney.interviewproject.model.MonthlyBalanceRollup;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Computes monthly rollups of a card's balance from its change points, one segment of constant balance at a time.
+ */
+public final class MonthlyBalanceRollups {
+
+    private MonthlyBalanceRollups() {
+    }
+
+    /**
+     * Computes the rollups of a card from fromMonth through the month of its last change point.
+     *
+     * @param previousBalance Balance before the first change point.
+     * @param changePoints    Change points of the card from fromMonth or earlier on, in ascending date order. Those
+     *                        before fromMonth only determine the balance the month starts with.
+     * @param fromMonth       First month to compute.
+     * @return Rollups in month order, without card or id. Empty if the last change point is before fromMonth.
+     */
+    public static List<MonthlyBalanceRollup> compute(double previousBalance, List<BalanceHistory> changePoints,
+                                                     YearMonth fromMonth) {
+        List<MonthlyBalanceRollup> rollups = new ArrayList<>();
+        if (changePoints.isEmpty()) {
+            return rollups;
+        }
+
+        double balance = previousBalance;
+        int next = 0;
+        LocalDate fromDate = fromMonth.atDay(1);
+        while (next < changePoints.size() && changePoints.get(next).getDate().isBefore(fromDate)) {
+            balance = changePoints.get(next++).getBalance();
+        }
+
+        YearMonth lastMonth = YearMonth.from(changePoints.get(changePoints.size() - 1).getDate());
+        for (YearMonth month = fromMonth; !month.isAfter(lastMonth); month = month.plusMonths(1)) {
+            LocalDate monthEnd = month.atEndOfMonth();
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            double sum = 0;
+            // First day of the current segment of constant balance
+            LocalDate day = month.atDay(1);
+            while (next < changePoints.size() && !changePoints.get(next).getDate().isAfter(monthEnd)) {
+                BalanceHistory changePoint = changePoints.get(next++);
+                // A change point on the first day of the segment ends it before it lasted a day
+                if (changePoint.getDate().isAfter(day)) {
+                    sum += balance * ChronoUnit.DAYS.between(day, changePoint.getDate());
+                    min = Math.min(min, balance);
+                    max = Math.max(max, balance);
+                }
+                balance = changePoint.getBalance();
+                day = changePoint.getDate();
+            }
+            // Last segment lasts until the end of the month
+            sum += balance * (ChronoUnit.DAYS.between(day, monthEnd) + 1);
+            min = Math.min(min, balance);
+            max = Math.max(max, balance);
+
+            MonthlyBalanceRollup rollup = new MonthlyBalanceRollup();
+            rollup.setMonthStart(month.atDay(1));
+            rollup.setMinBalance(min);
+            rollup.setMaxBalance(max);
+            rollup.setBalanceSum(sum);
+            rollup.setEndBalance(balance);
+            rollups.add(rollup);
+        }
+        return rollups;
+    }
+}
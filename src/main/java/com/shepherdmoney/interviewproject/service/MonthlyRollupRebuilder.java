@@ -0,0 +1,104 @@
+package com.shepherdmoney.interviewproject.service;
+
+import com.shepherdmoney.interviewproject.model.BalanceHistory;
+import com.shepherdmoney.interviewproject.model.MonthlyBalanceRollup;
+import com.shepherdmoney.interviewproject.repository.BalanceHistoryRepository;
+import com.shepherdmoney.interviewproject.repository.CreditCardRepository;
+import com.shepherdmoney.interviewproject.repository.MonthlyBalanceRollupRepository;
+import com.shepherdmoney.interviewproject.sharding.ShardRouter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Rebuilds the monthly rollups of all cards from their change points when the application is started with
+ * --rebuild-rollups, for example to create the rollups of balance history written before they existed.
+ * Cards are rebuilt CARD_BATCH_SIZE at a time, each batch in its own transaction. Balance updates to a card while
+ * its batch is rebuilt may fail and should be retried, so the rebuild is best run before taking traffic. With
+ * sharding, the card shards are rebuilt one after the other.
+ */
+@Slf4j
+@Component
+public class MonthlyRollupRebuilder implements ApplicationRunner {
+
+    private static final String REBUILD_OPTION = "rebuild-rollups";
+
+    // Number of cards rebuilt in one transaction
+    private static final int CARD_BATCH_SIZE = 500;
+
+    @Autowired
+    private CreditCardRepository creditCardRepository;
+    @Autowired
+    private BalanceHistoryRepository balanceHistoryRepository;
+    @Autowired
+    private MonthlyBalanceRollupRepository monthlyBalanceRollupRepository;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!args.containsOption(REBUILD_OPTION)) {
+            return;
+        }
+
+        log.info("Rebuilding monthly balance rollups");
+        int cardCount = 0;
+        for (int shard : shardRouter.getCardShards()) {
+            cardCount += shardRouter.onShard(shard, this::rebuildAll);
+        }
+        log.info("Rebuilt monthly balance rollups of {} cards", cardCount);
+    }
+
+    /**
+     * Rebuilds the rollups of all cards in the database the current thread is routed to.
+     *
+     * @return Number of cards rebuilt.
+     */
+    private int rebuildAll() {
+        int cardCount = 0;
+        List<Integer> cardIds;
+        int afterCardId = 0;
+        do {
+            cardIds = creditCardRepository.findIdsAfter(afterCardId, PageRequest.ofSize(CARD_BATCH_SIZE));
+            if (cardIds.isEmpty()) {
+                break;
+            }
+            List<Integer> batchCardIds = cardIds;
+            transactionTemplate.executeWithoutResult(status -> rebuild(batchCardIds));
+            cardCount += cardIds.size();
+            afterCardId = cardIds.get(cardIds.size() - 1);
+        } while (cardIds.size() == CARD_BATCH_SIZE);
+        return cardCount;
+    }
+
+    private void rebuild(List<Integer> cardIds) {
+        monthlyBalanceRollupRepository.deleteByCardIdIn(cardIds);
+        Map<Integer, List<BalanceHistory>> changePointsByCardId = balanceHistoryRepository
+                .findAllByCardIdIn(cardIds)
+                .stream()
+                .collect(Collectors.groupingBy(changePoint -> changePoint.getCard().getId()));
+
+        List<MonthlyBalanceRollup> rollups = new ArrayList<>();
+        for (Map.Entry<Integer, List<BalanceHistory>> entry : changePointsByCardId.entrySet()) {
+            List<BalanceHistory> changePoints = entry.getValue();
+            for (MonthlyBalanceRollup rollup : MonthlyBalanceRollups.compute(0, changePoints,
+                    YearMonth.from(changePoints.get(0).getDate()))) {
+                rollup.setCard(creditCardRepository.getReferenceById(entry.getKey()));
+                rollups.add(rollup);
+            }
+        }
+        monthlyBalanceRollupRepository.saveAll(rollups);
+    }
+}
@@ -0,0 +1,177 @@
+package com.shepherdmoney.interviewproject.service;
+
+import com.shepherdmoney.interviewproject.repository.BalanceHistoryRepository;
+import com.shepherdmoney.interviewproject.repository.CreditCardRepository;
+import com.shepherdmoney.interviewproject.repository.MonthlyBalanceRollupRepository;
+import com.shepherdmoney.interviewproject.repository.UserRepository;
+import com.shepherdmoney.interviewproject.sharding.ShardRouter;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Deletes users together with their credit cards and balance history, using set-based deletes that do not load any
+ * of the rows. The caches are invalidated once the deletes commit.
+ * <p>
+ * With sharding, the cards of each shard are deleted in their own transaction before the user, so a failure can
+ * leave a user with some of its cards deleted. Deleting the user again completes the deletion.
+ */
+@Slf4j
+@Service
+public class UserDeletionService {
+
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private CreditCardRepository creditCardRepository;
+    @Autowired
+    private BalanceHistoryRepository balanceHistoryRepository;
+    @Autowired
+    private MonthlyBalanceRollupRepository monthlyBalanceRollupRepository;
+    @Autowired
+    private CardOwnershipCache cardOwnershipCache;
+    @Autowired
+    private BalanceSeriesCache balanceSeriesCache;
+    @Autowired
+    private EntityVersionCache entityVersionCache;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private ShardRouter shardRouter;
+
+    // Number of cards deleted in one transaction by chunked deletion
+    private final int chunkSize;
+
+    private final ExecutorService executor =
+            Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "user-deletion"));
+
+    public UserDeletionService(@Value("${user-deletion.chunk-size:100}") int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Deletes a user with the balance history and rollups of its cards, then its cards, then the user itself, in one
+     * transaction, or in one transaction per shard with sharding.
+     *
+     * @param userId Id of the user.
+     * @return Whether the user existed.
+     */
+    public boolean deleteUser(int userId) {
+        if (!shardRouter.isEnabled()) {
+            return Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+                deleteCards(userId);
+                return userRepository.deleteWithoutLoading(userId) > 0;
+            }));
+        }
+
+        for (int shard : shardRouter.getCardShards()) {
+            bumpVersionAfterShardDelete(userId,
+                    shardRouter.onShard(shard, () -> transactionTemplate.execute(status -> deleteCards(userId))));
+        }
+        return Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            entityVersionCache.invalidateUserAfterCommit(userId);
+            return userRepository.deleteWithoutLoading(userId) > 0;
+        }));
+    }
+
+    /**
+     * Deletes all cards of a user with their balance history and rollups.
+     *
+     * @return Ids of the deleted cards.
+     */
+    private List<Integer> deleteCards(int userId) {
+        List<Integer> cardIds = creditCardRepository.findIdsByOwner(userId, Pageable.unpaged());
+        balanceHistoryRepository.deleteByOwner(userId);
+        monthlyBalanceRollupRepository.deleteByOwner(userId);
+        creditCardRepository.deleteByOwner(userId);
+        invalidateAfterCommit(userId, cardIds);
+        return cardIds;
+    }
+
+    /**
+     * Deletes a user in the background. Its cards and their balance history are deleted chunkSize cards at a time,
+     * each chunk in its own transaction, so no transaction holds locks on all of the user's rows. The user is deleted
+     * last, together with any card added to it in the meantime.
+     *
+     * @param userId Id of the user.
+     */
+    public void deleteUserInChunks(int userId) {
+        executor.execute(() -> {
+            try {
+                for (int shard : shardRouter.getCardShards()) {
+                    List<Integer> cardIds;
+                    do {
+                        cardIds = shardRouter.onShard(shard,
+                                () -> transactionTemplate.execute(status -> deleteCardChunk(userId)));
+                        bumpVersionAfterShardDelete(userId, cardIds);
+                    } while (cardIds.size() == chunkSize);
+                }
+                deleteUser(userId);
+            } catch (RuntimeException e) {
+                log.error("Could not delete user {}", userId, e);
+            }
+        });
+    }
+
+    /**
+     * Deletes the next chunk of cards of a user with their balance history. Without sharding, the user's version is
+     * bumped in the same transaction, since the user keeps existing until the last chunk is deleted.
+     *
+     * @return Ids of the deleted cards.
+     */
+    private List<Integer> deleteCardChunk(int userId) {
+        List<Integer> cardIds = creditCardRepository.findIdsByOwner(userId, PageRequest.ofSize(chunkSize));
+        if (!cardIds.isEmpty()) {
+            balanceHistoryRepository.deleteByCardIdIn(cardIds);
+            monthlyBalanceRollupRepository.deleteByCardIdIn(cardIds);
+            creditCardRepository.deleteByIdIn(cardIds);
+            if (!shardRouter.isEnabled()) {
+                userRepository.incrementVersion(userId);
+            }
+            invalidateAfterCommit(userId, cardIds);
+        }
+        return cardIds;
+    }
+
+    /**
+     * With sharding, bumps the version of a user after a card shard transaction deleted some of its cards. The user
+     * is in the directory, so the version can only be bumped once the cards are deleted, and it is removed from the
+     * cache again in case it was read in between.
+     */
+    private void bumpVersionAfterShardDelete(int userId, List<Integer> cardIds) {
+        if (shardRouter.isEnabled() && !cardIds.isEmpty()) {
+            userRepository.incrementVersion(userId);
+            entityVersionCache.invalidateUserAfterCommit(userId);
+        }
+    }
+
+    private void invalidateAfterCommit(int userId, List<Integer> cardIds) {
+        entityVersionCache.invalidateUserAfterCommit(userId);
+        entityVersionCache.invalidateCardsAfterCommit(cardIds);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                cardOwnershipCache.invalidateOwner(userId);
+                for (int cardId : cardIds) {
+                    balanceSeriesCache.invalidate(cardId);
+                }
+            }
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdown();
+    }
+}
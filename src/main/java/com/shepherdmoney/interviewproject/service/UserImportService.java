@@ -0,0 +1,144 @@
+package com.shepherdmoney.interviewproject.service;
+
+import com.shepherdmoney.interviewproject.model.CreditCard;
+import com.shepherdmoney.interviewproject.model.User;
+import com.shepherdmoney.interviewproject.repository.CreditCardRepository;
+import com.shepherdmoney.interviewproject.repository.UserRepository;
+import com.shepherdmoney.interviewproject.sharding.ShardRouter;
+import com.shepherdmoney.interviewproject.vo.request.ImportCreditCardPayload;
+import com.shepherdmoney.interviewproject.vo.request.ImportUserPayload;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+
+/**
+ * Imports users together with their credit cards in bulk.
+ * New users and cards take their ids from pooled sequences and are written with batched inserts.
+ * <p>
+ * With sharding, the users of a chunk are written to the directory first, and then the cards of each shard in their
+ * own transaction, so a failure can leave users of a chunk without some of their cards.
+ */
+@Service
+public class UserImportService {
+
+    // Maximum number of card numbers checked for existence in one query
+    private static final int CARD_NUMBER_BATCH_SIZE = 1000;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private CreditCardRepository creditCardRepository;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    /**
+     * Imports a chunk of users with their cards in one database transaction, or one per shard with sharding. A user
+     * is rejected together with all of its cards if any of them is invalid, and the other users are imported anyway.
+     *
+     * @param users Users to import.
+     * @return For each user, in order, the reason it was rejected, or null if it was imported.
+     */
+    public List<String> importUsers(List<ImportUserPayload> users) {
+        Set<String> existingCardNumbers = findExistingCardNumbers(users);
+        // Card numbers of the users imported so far in this chunk
+        Set<String> importedCardNumbers = new HashSet<>();
+        List<String> rejections = new ArrayList<>(users.size());
+        List<User> newUsers = new ArrayList<>(users.size());
+        for (ImportUserPayload user : users) {
+            String rejection = findRejection(user, existingCardNumbers, importedCardNumbers);
+            rejections.add(rejection);
+            if (rejection != null) {
+                continue;
+            }
+
+            User newUser = new User();
+            newUser.setName(user.getName());
+            newUser.setEmail(user.getEmail());
+            List<CreditCard> newCards = new ArrayList<>(cardsOf(user).size());
+            for (ImportCreditCardPayload card : cardsOf(user)) {
+                CreditCard newCard = new CreditCard();
+                newCard.setIssuanceBank(card.getIssuanceBank());
+                newCard.setNumber(card.getNumber());
+                newCard.setOwner(newUser);
+                // New card has no balance changes yet, so its balance is 0
+                newCard.setBalanceHistory(new ArrayList<>());
+                newCards.add(newCard);
+                importedCardNumbers.add(card.getNumber());
+            }
+            newUser.setCreditCardList(newCards);
+            newUsers.add(newUser);
+        }
+
+        if (!shardRouter.isEnabled()) {
+            // Persisting the users cascades to their cards
+            transactionTemplate.executeWithoutResult(status -> userRepository.saveAll(newUsers));
+            return rejections;
+        }
+
+        // The cards are not in the directory, so the users are saved without them and the cards saved separately
+        // once their owners have ids
+        List<CreditCard> newCards = new ArrayList<>();
+        for (User newUser : newUsers) {
+            newCards.addAll(newUser.getCreditCardList());
+            newUser.setCreditCardList(new ArrayList<>());
+        }
+        transactionTemplate.executeWithoutResult(status -> userRepository.saveAll(newUsers));
+        shardRouter.groupByShard(newCards, CreditCard::getNumber).forEach((shard, shardCards) ->
+                shardRouter.onShard(shard, () ->
+                        transactionTemplate.executeWithoutResult(status -> creditCardRepository.saveAll(shardCards))));
+        return rejections;
+    }
+
+    private Set<String> findExistingCardNumbers(List<ImportUserPayload> users) {
+        List<String> cardNumbers = new ArrayList<>();
+        for (ImportUserPayload user : users) {
+            for (ImportCreditCardPayload card : cardsOf(user)) {
+                if (card != null && card.getNumber() != null) {
+                    cardNumbers.add(card.getNumber());
+                }
+            }
+        }
+
+        Set<String> existingCardNumbers = new HashSet<>();
+        shardRouter.groupByShard(cardNumbers, cardNumber -> cardNumber).forEach((shard, shardCardNumbers) ->
+                shardRouter.onShard(shard, () -> {
+                    for (int start = 0; start < shardCardNumbers.size(); start += CARD_NUMBER_BATCH_SIZE) {
+                        existingCardNumbers.addAll(creditCardRepository.findExistingNumbers(shardCardNumbers.subList(
+                                start, Math.min(start + CARD_NUMBER_BATCH_SIZE, shardCardNumbers.size()))));
+                    }
+                }));
+        return existingCardNumbers;
+    }
+
+    private static String findRejection(ImportUserPayload user, Set<String> existingCardNumbers,
+                                        Set<String> importedCardNumbers) {
+        if (user.getName() == null || user.getEmail() == null) {
+            return "User is missing its name or email.";
+        }
+
+        Set<String> userCardNumbers = new HashSet<>();
+        for (ImportCreditCardPayload card : cardsOf(user)) {
+            if (card == null || card.getIssuanceBank() == null || card.getNumber() == null) {
+                return "Card is missing its issuance bank or number.";
+            }
+            if (existingCardNumbers.contains(card.getNumber())) {
+                return "Card number " + card.getNumber() + " already exists.";
+            }
+            if (importedCardNumbers.contains(card.getNumber()) || !userCardNumbers.add(card.getNumber())) {
+                return "Card number " + card.getNumber() + " appears more than once in the import.";
+            }
+        }
+        return null;
+    }
+
+    private static List<ImportCreditCardPayload> cardsOf(ImportUserPayload user) {
+        return user.getCards() != null ? user.getCards() : Collections.emptyList();
+    }
+}
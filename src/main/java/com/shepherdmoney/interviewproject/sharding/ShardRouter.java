@@ -0,0 +1,150 @@
+package com.shepherdmoney.interviewproject.sharding;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Decides which database the current thread's persistence calls go to. With the sharding profile, users live in the
+ * directory database, shard 0, and each credit card, with its balance history and rollups, lives in one of the card
+ * shards 1 to N picked by the hash of its number. Without it, there is only shard 0, which holds everything, and
+ * routing does nothing.
+ * <p>
+ * A thread is routed for the duration of onShard. The shard must be chosen before a database transaction starts,
+ * since the transaction keeps the connection it started with.
+ */
+@Component
+public class ShardRouter {
+
+    private static final ThreadLocal<Integer> CURRENT_SHARD = new ThreadLocal<>();
+
+    private final int cardShardCount;
+
+    private final ExecutorService fanOutExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public ShardRouter(@Value("${sharding.shard-urls:}") String[] shardUrls) {
+        this.cardShardCount = shardUrls.length;
+    }
+
+    /**
+     * Gets the shard the current thread is routed to, null if it is not routed and uses the directory.
+     */
+    static Integer currentShard() {
+        return CURRENT_SHARD.get();
+    }
+
+    /**
+     * Routes the current thread to a shard until it is routed elsewhere, or stops routing it if shard is null.
+     */
+    static void route(Integer shard) {
+        if (shard != null) {
+            CURRENT_SHARD.set(shard);
+        } else {
+            CURRENT_SHARD.remove();
+        }
+    }
+
+    public boolean isEnabled() {
+        return cardShardCount > 0;
+    }
+
+    /**
+     * Gets the shards credit cards are stored in.
+     */
+    public List<Integer> getCardShards() {
+        if (!isEnabled()) {
+            return List.of(0);
+        }
+        List<Integer> shards = new ArrayList<>(cardShardCount);
+        for (int shard = 1; shard <= cardShardCount; shard++) {
+            shards.add(shard);
+        }
+        return shards;
+    }
+
+    /**
+     * Gets the shard the card with the given number is stored in.
+     */
+    public int shardOf(String cardNumber) {
+        if (!isEnabled() || cardNumber == null) {
+            return 0;
+        }
+        return 1 + Math.floorMod(cardNumber.hashCode(), cardShardCount);
+    }
+
+    /**
+     * Groups items by the shard of their card number, keeping their order within each shard.
+     */
+    public <T> Map<Integer, List<T>> groupByShard(Collection<T> items, Function<T, String> cardNumberOf) {
+        Map<Integer, List<T>> itemsByShard = new TreeMap<>();
+        for (T item : items) {
+            itemsByShard.computeIfAbsent(shardOf(cardNumberOf.apply(item)), shard -> new ArrayList<>()).add(item);
+        }
+        return itemsByShard;
+    }
+
+    /**
+     * Runs an action with the current thread routed to a shard.
+     */
+    public <T> T onShard(int shard, Supplier<T> action) {
+        Integer previousShard = CURRENT_SHARD.get();
+        CURRENT_SHARD.set(shard);
+        try {
+            return action.get();
+        } finally {
+            route(previousShard);
+        }
+    }
+
+    public void onShard(int shard, Runnable action) {
+        onShard(shard, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs an action on every card shard, in parallel if there is more than one.
+     *
+     * @return Result of the action on each shard, in shard order.
+     */
+    public <T> List<T> onEachCardShard(Supplier<T> action) {
+        List<Integer> shards = getCardShards();
+        if (shards.size() == 1) {
+            return List.of(onShard(shards.get(0), action));
+        }
+
+        List<Future<T>> futures = new ArrayList<>(shards.size());
+        for (int shard : shards) {
+            futures.add(fanOutExecutor.submit(() -> onShard(shard, action)));
+        }
+        List<T> results = new ArrayList<>(shards.size());
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for shards", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                throw new IllegalStateException("Shard read failed", e.getCause());
+            }
+        }
+        return results;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        fanOutExecutor.shutdown();
+    }
+}
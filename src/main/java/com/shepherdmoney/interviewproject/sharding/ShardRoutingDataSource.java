@@ -0,0 +1,34 @@
+package com.shepherdmoney.interviewproject.sharding;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * Data source that hands out connections to the shard the current thread is routed to by the ShardRouter, or to the
+ * directory database if it is not routed. Closing it closes the connection pools of all shards.
+ */
+public class ShardRoutingDataSource extends AbstractRoutingDataSource implements Closeable {
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return ShardRouter.currentShard();
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (DataSource shard : getResolvedDataSources().values()) {
+            // The pool of a shard may be wrapped in a BoundedDataSource
+            try {
+                if (shard.isWrapperFor(Closeable.class)) {
+                    shard.unwrap(Closeable.class).close();
+                }
+            } catch (SQLException e) {
+                throw new IOException("Could not close the connection pool of a shard", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.shepherdmoney.interviewproject.sharding;
+
+import com.shepherdmoney.interviewproject.config.BoundedDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * With the sharding profile, users are stored in the directory database at sharding.directory-url, and credit cards
+ * with their balance history and rollups in the card shards at sharding.shard-urls, picked by the hash of the card
+ * number. See ShardRouter.
+ * <p>
+ * Hibernate does not generate the schema of the shards, it is created from db/sharding/schema.sql on startup. The
+ * sequences of each card shard hand out disjoint blocks of allocationSize ids, so card, change point and rollup ids
+ * are unique across shards.
+ * <p>
+ * Requests with a creditCardNumber parameter are routed to the shard of that card. Anything else that reads or writes
+ * cards routes itself through the ShardRouter.
+ * <p>
+ * With virtual threads, the connections checked out from each database are bounded separately, by
+ * virtual-threads.max-connections per database. See VirtualThreadConfiguration.
+ */
+@Configuration
+@Profile("sharding")
+public class ShardingConfiguration implements WebMvcConfigurer {
+
+    private static final String CARD_NUMBER_PARAMETER = "creditCardNumber";
+
+    // Must match the allocationSize of the entities' sequence generators
+    private static final int SEQUENCE_ALLOCATION_SIZE = 100;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+    @Value("${virtual-threads.max-connections:${spring.datasource.hikari.maximum-pool-size:10}}")
+    private int maxConnectionsPerShard;
+    @Value("${virtual-threads.connection-timeout-ms:30000}")
+    private long connectionTimeoutMillis;
+
+    @Bean
+    @Primary
+    public DataSource shardRoutingDataSource(
+            @Value("${sharding.directory-url}") String directoryUrl,
+            @Value("${sharding.shard-urls}") String[] shardUrls,
+            @Value("${spring.datasource.username:sa}") String username,
+            @Value("${spring.datasource.password:}") String password,
+            @Value("${spring.datasource.hikari.maximum-pool-size:10}") int maxPoolSize) {
+        DataSource directory = createDataSource(directoryUrl, username, password, maxPoolSize);
+        createSchema(directory);
+        new JdbcTemplate(directory).execute("create sequence if not exists my_user_seq start with 1 increment by "
+                + SEQUENCE_ALLOCATION_SIZE);
+
+        Map<Object, Object> shards = new HashMap<>();
+        shards.put(0, directory);
+        for (int shard = 1; shard <= shardUrls.length; shard++) {
+            DataSource cardShard = createDataSource(shardUrls[shard - 1], username, password, maxPoolSize);
+            createSchema(cardShard);
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(cardShard);
+            for (String sequence : new String[]{"credit_card_seq", "balance_history_seq",
+                    "monthly_balance_rollup_seq"}) {
+                // Shard k hands out the k-th block of every round of one block per shard
+                jdbcTemplate.execute("create sequence if not exists " + sequence
+                        + " start with " + SEQUENCE_ALLOCATION_SIZE * shard
+                        + " increment by " + SEQUENCE_ALLOCATION_SIZE * shardUrls.length);
+            }
+            shards.put(shard, cardShard);
+        }
+
+        ShardRoutingDataSource routingDataSource = new ShardRoutingDataSource();
+        routingDataSource.setTargetDataSources(shards);
+        routingDataSource.setDefaultTargetDataSource(directory);
+        routingDataSource.afterPropertiesSet();
+        return routingDataSource;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new HandlerInterceptor() {
+            @Override
+            public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+                String cardNumber = request.getParameter(CARD_NUMBER_PARAMETER);
+                if (cardNumber != null) {
+                    ShardRouter.route(shardRouter.shardOf(cardNumber));
+                }
+                return true;
+            }
+
+            @Override
+            public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                        Exception ex) {
+                ShardRouter.route(null);
+            }
+        });
+    }
+
+    private DataSource createDataSource(String url, String username, String password, int maxPoolSize) {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(url);
+        dataSource.setUsername(username);
+        dataSource.setPassword(password);
+        dataSource.setMaximumPoolSize(maxPoolSize);
+        return virtualThreads
+                ? new BoundedDataSource(dataSource, maxConnectionsPerShard, connectionTimeoutMillis)
+                : dataSource;
+    }
+
+    private static void createSchema(DataSource dataSource) {
+        new ResourceDatabasePopulator(new ClassPathResource("db/sharding/schema.sql")).execute(dataSource);
+    }
+}
@@ -0,0 +1,25 @@
+package com.shepherdmoney.interviewproject.vo.request;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+
+/**
+ * Length of the period each point of a balance series covers. Each point is the balance at the end of its period.
+ */
+public enum BalanceGranularity {
+    DAY,
+    WEEK,
+    MONTH;
+
+    /**
+     * Gets the last day of the period the given date is in. Weeks end on Sunday.
+     */
+    public LocalDate endOfPeriod(LocalDate date) {
+        return switch (this) {
+            case DAY -> date;
+            case WEEK -> date.with(TemporalAdjusters.nextOrSame(DayOfWeek.SUNDAY));
+            case MONTH -> date.with(TemporalAdjusters.lastDayOfMonth());
+        };
+    }
+}
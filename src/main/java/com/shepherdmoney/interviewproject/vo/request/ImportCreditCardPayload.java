@@ -0,0 +1,11 @@
+package com.shepherdmoney.interviewproject.vo.request;
+
+import lombok.Data;
+
+@Data
+public class ImportCreditCardPayload {
+
+    private String issuanceBank;
+
+    private String number;
+}
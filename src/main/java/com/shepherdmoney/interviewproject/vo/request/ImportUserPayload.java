@@ -0,0 +1,16 @@
+package com.shepherdmoney.interviewproject.vo.request;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class ImportUserPayload {
+
+    private String name;
+
+    private String email;
+
+    // Cards the user owns, may be empty
+    private List<ImportCreditCardPayload> cards;
+}
@@ -0,0 +1,15 @@
+package com.shepherdmoney.interviewproject.vo.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class BalanceJournalStatus {
+
+    // Sequence number of the last transaction appended to the journal
+    private long appendedSequence;
+
+    // Sequence number up to which journaled transactions have been applied to the balance history
+    private long appliedSequence;
+}
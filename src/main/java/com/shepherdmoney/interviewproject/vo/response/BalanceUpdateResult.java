@@ -0,0 +1,31 @@
+package com.shepherdmoney.interviewproject.vo.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BalanceUpdateResult {
+
+    public enum Status {
+        APPLIED,
+        // Appended to the balance journal, to be applied in the background
+        ACCEPTED,
+        REJECTED
+    }
+
+    // 1-based line of the transaction in the request body, or its record number in a binary body
+    private long line;
+
+    private Status status;
+
+    // Reason the transaction was rejected, null if it was applied
+    private String message;
+
+    // Journal sequence number the transaction was accepted with, null if it was not journaled
+    private Long sequence;
+}
@@ -0,0 +1,25 @@
+package com.shepherdmoney.interviewproject.vo.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.YearMonth;
+
+@Data
+@Builder
+@AllArgsConstructor
+public class MonthlyBalanceView {
+
+    private YearMonth month;
+
+    private double minBalance;
+
+    private double maxBalance;
+
+    // Average end-of-day balance over the days of the month up to today
+    private double averageBalance;
+
+    // Balance at the end of the month, or today for the current month
+    private double endBalance;
+}
@@ -0,0 +1,42 @@
+package com.shepherdmoney.interviewproject.vo.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+@AllArgsConstructor
+public class ReconciliationReport {
+
+    private boolean running;
+
+    // Whether problems are only reported, not repaired
+    private boolean dryRun;
+
+    // Whether runs of change points with the same balance are compacted
+    private boolean compact;
+
+    // Card shard being scanned, 0 without sharding
+    private int shard;
+
+    // Id of the last card of the last page scanned in the shard, which a resumed run continues after
+    private int lastCardId;
+
+    private long cardsScanned;
+
+    // Change points on the same day as another change point of the card
+    private long duplicateChangePoints;
+
+    // Change points with the same balance as the change point before them
+    private long redundantChangePoints;
+
+    // Monthly rollups that are missing, differ from the change points or have no change points. With compaction, the
+    // change points left after deleting the redundant ones
+    private long driftedRollups;
+
+    private long cardsRepaired;
+
+    // Why the last run stopped early, null if it did not
+    private String error;
+}
@@ -0,0 +1,33 @@
+package com.shepherdmoney.interviewproject.vo.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class UserImportProgress {
+
+    @Data
+    @AllArgsConstructor
+    public static class RejectedLine {
+
+        // 1-based line of the user in the request body
+        private long line;
+
+        // Reason the user and its cards were not imported
+        private String message;
+    }
+
+    // Number of lines of the request body read so far
+    private long linesRead;
+
+    // Totals imported so far
+    private long usersImported;
+
+    private long cardsImported;
+
+    // Lines rejected since the previous progress report
+    private List<RejectedLine> rejected;
+}
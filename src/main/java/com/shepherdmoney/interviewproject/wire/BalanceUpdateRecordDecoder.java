@@ -0,0 +1,161 @@
+package com.shepherdmoney.interviewproject.wire;
+
+import com.shepherdmoney.interviewproject.vo.request.UpdateBalancePayload;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * Decodes balance updates in the BalanceUpdateRecordFormat from a channel, one record at a time into a transaction
+ * the caller can reuse. The channel is read into a single buffer in large reads, and fields are decoded in place
+ * from the buffer. Card numbers are looked up in a small cache of the card numbers decoded before, so a record of a
+ * card seen before allocates nothing but the Instant of its time.
+ * <p>
+ * Not thread-safe, meant to decode one request body.
+ */
+public class BalanceUpdateRecordDecoder {
+
+    public enum Result {
+        // The record was decoded into the transaction
+        RECORD,
+        // The record is framed correctly but its fields are not, for example its card number is not UTF-8, and was
+        // skipped
+        INVALID,
+        // The length of the record is out of range or the body ends within the record, so nothing after it can be
+        // decoded
+        MALFORMED,
+        // The body ended after the previous record
+        END
+    }
+
+    // Holds at least one record with its length prefix
+    private static final int BUFFER_SIZE = 8192;
+
+    // Number of cached card numbers, a power of two. A card number replaces the one cached in its slot
+    private static final int CARD_NUMBER_CACHE_SIZE = 256;
+
+    // Length of the fields after the card number
+    private static final int TIME_AND_AMOUNT_LENGTH = 2 * Long.BYTES;
+
+    private final ReadableByteChannel channel;
+
+    // Heap buffer, so that cached card numbers can be compared against its backing array
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private final String[] cachedCardNumbers = new String[CARD_NUMBER_CACHE_SIZE];
+
+    private final byte[][] cachedCardNumberBytes = new byte[CARD_NUMBER_CACHE_SIZE][];
+
+    // Rejects malformed UTF-8 instead of replacing it, which would turn distinct invalid card numbers into the same one
+    private final CharsetDecoder cardNumberDecoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+
+    private boolean endOfInput;
+
+    public BalanceUpdateRecordDecoder(ReadableByteChannel channel) {
+        this.channel = channel;
+        // Nothing read yet
+        buffer.limit(0);
+    }
+
+    /**
+     * Decodes the next record.
+     *
+     * @param transaction Transaction to decode the record into. Only changed if the result is RECORD.
+     * @return Whether a record was decoded, skipped or could not be read.
+     */
+    public Result next(UpdateBalancePayload transaction) throws IOException {
+        if (!fill(Integer.BYTES)) {
+            return buffer.hasRemaining() ? Result.MALFORMED : Result.END;
+        }
+        int length = buffer.getInt();
+        if (length < 0 || length > BalanceUpdateRecordFormat.MAX_RECORD_LENGTH || !fill(length)) {
+            return Result.MALFORMED;
+        }
+
+        int start = buffer.position();
+        // Whatever the record holds, the next one starts after it
+        buffer.position(start + length);
+        if (length < Short.BYTES) {
+            return Result.INVALID;
+        }
+        int cardNumberLength = Short.toUnsignedInt(buffer.getShort(start));
+        if (cardNumberLength == 0 || cardNumberLength > BalanceUpdateRecordFormat.MAX_CARD_NUMBER_BYTES
+                || Short.BYTES + cardNumberLength + TIME_AND_AMOUNT_LENGTH > length) {
+            return Result.INVALID;
+        }
+
+        int cardNumberStart = start + Short.BYTES;
+        int timeStart = cardNumberStart + cardNumberLength;
+        String cardNumber = cardNumber(cardNumberStart, cardNumberLength);
+        if (cardNumber == null) {
+            return Result.INVALID;
+        }
+        transaction.setCreditCardNumber(cardNumber);
+        transaction.setTransactionTime(Instant.ofEpochMilli(buffer.getLong(timeStart)));
+        transaction.setTransactionAmount(
+                (double) buffer.getLong(timeStart + Long.BYTES) / BalanceUpdateRecordFormat.AMOUNT_SCALE);
+        return Result.RECORD;
+    }
+
+    /**
+     * Reads from the channel until the buffer holds at least the given number of bytes after its position, or the
+     * channel ends.
+     *
+     * @return Whether the buffer holds that many bytes.
+     */
+    private boolean fill(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return true;
+        }
+        buffer.compact();
+        try {
+            while (buffer.position() < bytes && !endOfInput) {
+                if (channel.read(buffer) < 0) {
+                    endOfInput = true;
+                }
+            }
+        } finally {
+            buffer.flip();
+        }
+        return buffer.remaining() >= bytes;
+    }
+
+    /**
+     * Gets the card number stored at the given position of the buffer, from the cache if it was decoded before.
+     *
+     * @return The card number, null if it is not valid UTF-8.
+     */
+    private String cardNumber(int position, int length) {
+        byte[] bytes = buffer.array();
+        int offset = buffer.arrayOffset() + position;
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & (CARD_NUMBER_CACHE_SIZE - 1);
+
+        byte[] cachedBytes = cachedCardNumberBytes[slot];
+        if (cachedBytes != null && Arrays.equals(bytes, offset, offset + length, cachedBytes, 0, cachedBytes.length)) {
+            return cachedCardNumbers[slot];
+        }
+        byte[] cardNumberBytes = Arrays.copyOfRange(bytes, offset, offset + length);
+        String cardNumber;
+        try {
+            cardNumber = cardNumberDecoder.decode(ByteBuffer.wrap(cardNumberBytes)).toString();
+        } catch (CharacterCodingException e) {
+            return null;
+        }
+        cachedCardNumberBytes[slot] = cardNumberBytes;
+        cachedCardNumbers[slot] = cardNumber;
+        return cardNumber;
+    }
+}
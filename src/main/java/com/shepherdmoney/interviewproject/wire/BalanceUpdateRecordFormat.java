@@ -0,0 +1,47 @@
+package com.shepherdmoney.interviewproject.wire;
+
+import com.shepherdmoney.interviewproject.vo.request.UpdateBalancePayload;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary record format for balance updates, a compact alternative to JSON for high-volume feeds. A body is a
+ * sequence of records, each laid out big-endian as:
+ * <pre>
+ * int    length of the rest of the record
+ * short  length of the card number
+ * byte[] card number, UTF-8
+ * long   transaction time, epoch millis
+ * long   transaction amount, in hundredths
+ * </pre>
+ * Bytes after the amount are ignored, so that fields can be added to the end of a record later.
+ */
+public final class BalanceUpdateRecordFormat {
+
+    public static final String MEDIA_TYPE = "application/x-balance-update-records";
+
+    // Amounts are sent as a whole number of hundredths
+    public static final int AMOUNT_SCALE = 100;
+
+    public static final int MAX_CARD_NUMBER_BYTES = 64;
+
+    // Longest record, not counting its length prefix
+    public static final int MAX_RECORD_LENGTH = 1024;
+
+    private BalanceUpdateRecordFormat() {
+    }
+
+    /**
+     * Encodes a transaction as a record at the position of the buffer. The amount is rounded to the nearest
+     * hundredth.
+     */
+    public static void encode(UpdateBalancePayload transaction, ByteBuffer buffer) {
+        byte[] cardNumber = transaction.getCreditCardNumber().getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(Short.BYTES + cardNumber.length + 2 * Long.BYTES);
+        buffer.putShort((short) cardNumber.length);
+        buffer.put(cardNumber);
+        buffer.putLong(transaction.getTransactionTime().toEpochMilli());
+        buffer.putLong(Math.round(transaction.getTransactionAmount() * AMOUNT_SCALE));
+    }
+}
@@ -0,0 +1,49 @@
+-- Schema of the prod profile, which creates and upgrades the schema with Flyway instead of Hibernate. Matches the
+-- entities, including the pooled sequences with their allocationSize as increment.
+
+create sequence my_user_seq start with 1 increment by 100;
+create sequence credit_card_seq start with 1 increment by 100;
+create sequence balance_history_seq start with 1 increment by 100;
+create sequence monthly_balance_rollup_seq start with 1 increment by 100;
+
+create table my_user (
+    id integer not null primary key,
+    name varchar(255),
+    email varchar(255),
+    version bigint not null
+);
+
+create table credit_card (
+    id integer not null primary key,
+    issuance_bank varchar(255),
+    number varchar(255),
+    version bigint not null,
+    owner_id integer references my_user (id),
+    constraint uk_credit_card_number unique (number)
+);
+create index ix_credit_card_owner_number on credit_card (owner_id, number);
+
+create table balance_history (
+    id integer not null primary key,
+    date date,
+    balance double precision not null,
+    card_id integer references credit_card (id),
+    constraint uk_balance_history_card_date unique (card_id, date)
+);
+create index ix_balance_history_card_date_balance on balance_history (card_id, date, balance);
+
+create table monthly_balance_rollup (
+    id integer not null primary key,
+    month_start date,
+    min_balance double precision not null,
+    max_balance double precision not null,
+    balance_sum double precision not null,
+    end_balance double precision not null,
+    card_id integer references credit_card (id),
+    constraint uk_monthly_balance_rollup_card_month unique (card_id, month_start)
+);
+
+create table job_checkpoint (
+    name varchar(255) not null primary key,
+    position bigint not null
+);
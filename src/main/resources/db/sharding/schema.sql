@@ -0,0 +1,46 @@
+-- Schema of the directory and the card shards with the sharding profile. Every database gets all tables, but the
+-- directory only uses my_user and job_checkpoint, and the card shards only the others. Cards do not reference their
+-- owner with a foreign key, since the owner is in another database.
+-- Sequences are created by ShardingConfiguration, since their ranges depend on the shard.
+
+create table if not exists my_user (
+    id integer not null primary key,
+    name varchar(255),
+    email varchar(255),
+    version bigint not null
+);
+
+create table if not exists credit_card (
+    id integer not null primary key,
+    issuance_bank varchar(255),
+    number varchar(255),
+    version bigint not null,
+    owner_id integer,
+    constraint uk_credit_card_number unique (number)
+);
+create index if not exists ix_credit_card_owner_number on credit_card (owner_id, number);
+
+create table if not exists balance_history (
+    id integer not null primary key,
+    date date,
+    balance double precision not null,
+    card_id integer references credit_card (id),
+    constraint uk_balance_history_card_date unique (card_id, date)
+);
+create index if not exists ix_balance_history_card_date_balance on balance_history (card_id, date, balance);
+
+create table if not exists monthly_balance_rollup (
+    id integer not null primary key,
+    month_start date,
+    min_balance double precision not null,
+    max_balance double precision not null,
+    balance_sum double precision not null,
+    end_balance double precision not null,
+    card_id integer references credit_card (id),
+    constraint uk_monthly_balance_rollup_card_month unique (card_id, month_start)
+);
+
+create table if not exists job_checkpoint (
+    name varchar(255) not null primary key,
+    position bigint not null
+);
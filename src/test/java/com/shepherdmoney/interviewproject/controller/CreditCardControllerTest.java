@@ -0,0 +1,111 @@
+package com.shepherdmoney.interviewproject.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.shepherdmoney.interviewproject.model.CreditCard;
+import com.shepherdmoney.interviewproject.model.User;
+import com.shepherdmoney.interviewproject.repository.CreditCardRepository;
+import com.shepherdmoney.interviewproject.repository.UserRepository;
+import com.shepherdmoney.interviewproject.service.BalanceHistoryService;
+import com.shepherdmoney.interviewproject.service.CardWriteLanes;
+import com.shepherdmoney.interviewproject.vo.request.UpdateBalancePayload;
+import com.shepherdmoney.interviewproject.wire.BalanceUpdateRecordFormat;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:credit-card-controller-test;DB_CLOSE_DELAY=-1")
+@AutoConfigureMockMvc
+class CreditCardControllerTest {
+
+    // NDJSON_CHUNK_SIZE of CreditCardController
+    private static final int CHUNK_SIZE = 1000;
+
+    // Length prefix, card number length, transaction time and amount of a record without a card number
+    private static final int INVALID_RECORD_SIZE = Integer.BYTES + Short.BYTES + 2 * Long.BYTES;
+
+    private static final LocalDate YESTERDAY = LocalDate.now(ZoneOffset.UTC).minusDays(1);
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @SpyBean
+    private CardWriteLanes cardWriteLanes;
+    @Autowired
+    private BalanceHistoryService balanceHistoryService;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private CreditCardRepository creditCardRepository;
+
+    @Test
+    void binaryBodyOfInvalidRecordsIsReportedChunkByChunk() throws Exception {
+        String cardNumber = UUID.randomUUID().toString();
+        int cardId = createCard(cardNumber);
+        int invalidCount = 2 * CHUNK_SIZE + 500;
+        ByteBuffer body = ByteBuffer.allocate(invalidCount * INVALID_RECORD_SIZE + 256);
+        for (int i = 0; i < invalidCount; i++) {
+            // A record without a card number is invalid
+            body.putInt(Short.BYTES + 2 * Long.BYTES).putShort((short) 0).putLong(0).putLong(0);
+        }
+        BalanceUpdateRecordFormat.encode(transaction(cardNumber, 12.5), body);
+
+        String response = mockMvc.perform(post("/credit-card:update-balance")
+                        .contentType(BalanceUpdateRecordFormat.MEDIA_TYPE)
+                        .content(Arrays.copyOf(body.array(), body.position())))
+                .andExpect(status().isOk())
+                .andReturn()
+                .getResponse()
+                .getContentAsString();
+
+        List<String> lines = response.lines().toList();
+        assertThat(lines).hasSize(invalidCount);
+        for (int i = 0; i < invalidCount; i++) {
+            JsonNode rejection = objectMapper.readTree(lines.get(i));
+            assertThat(rejection.get("line").asLong()).isEqualTo(i + 1);
+            assertThat(rejection.get("status").asText()).isEqualTo("REJECTED");
+        }
+        // Two chunks of only invalid records, then the rest with the valid record
+        verify(cardWriteLanes, times(3)).applyValidTransactions(anyList());
+        assertThat(balanceHistoryService.getCurrentBalance(cardId)).isEqualTo(12.5);
+    }
+
+    private int createCard(String cardNumber) {
+        User user = new User();
+        user.setName("Test User");
+        user.setEmail("test@example.com");
+        userRepository.save(user);
+
+        CreditCard card = new CreditCard();
+        card.setIssuanceBank("Test Bank");
+        card.setNumber(cardNumber);
+        card.setOwner(user);
+        return creditCardRepository.save(card).getId();
+    }
+
+    private static UpdateBalancePayload transaction(String cardNumber, double amount) {
+        UpdateBalancePayload transaction = new UpdateBalancePayload();
+        transaction.setCreditCardNumber(cardNumber);
+        transaction.setTransactionTime(YESTERDAY.atStartOfDay().toInstant(ZoneOffset.UTC));
+        transaction.setTransactionAmount(amount);
+        return transaction;
+    }
+}
@@ -0,0 +1,193 @@
+package com.shepherdmoney.interviewproject.journal;
+
+import com.shepherdmoney.interviewproject.vo.request.UpdateBalancePayload;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BalanceJournalTest {
+
+    private static final String CARD_NUMBER = "4111111111111111";
+
+    // Header, card number length, card number, transaction time and amount
+    private static final int RECORD_SIZE = 16 + 2 + CARD_NUMBER.length() + 8 + 8;
+
+    private static final int RECORDS_PER_SEGMENT = 1024 * 1024 / RECORD_SIZE;
+
+    @TempDir
+    Path directory;
+
+    private BalanceJournal journal;
+
+    @AfterEach
+    void closeJournal() throws IOException {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    @Test
+    void resumesAfterCheckpointWhenReopened() throws Exception {
+        journal = open();
+        assertThat(journal.append(transactions(1, 5))).isEqualTo(5);
+        journal.close();
+
+        journal = open();
+        assertThat(journal.getLastSequence()).isEqualTo(5);
+        assertAmounts(journal.readAfter(3, 10, 0), 4, 5);
+        assertThat(journal.append(transactions(6, 1))).isEqualTo(6);
+        assertAmounts(journal.readAfter(5, 10, 0), 6, 6);
+    }
+
+    @Test
+    void truncatesRecordWithCorruptedChecksumOnReopen() throws Exception {
+        journal = open();
+        journal.append(transactions(1, 3));
+        journal.close();
+
+        // Flip a byte of the card number of the third record, as if the process stopped while writing it
+        try (FileChannel channel = FileChannel.open(segmentFile(1), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{'X'}), 2L * RECORD_SIZE + 18);
+        }
+
+        journal = open();
+        assertThat(journal.getLastSequence()).isEqualTo(2);
+        assertAmounts(journal.readAfter(0, 10, 0), 1, 2);
+
+        // The next append reuses the sequence number and position of the corrupted record
+        assertThat(journal.append(transactions(3, 1))).isEqualTo(3);
+        journal.close();
+        journal = open();
+        assertAmounts(journal.readAfter(0, 10, 0), 1, 3);
+    }
+
+    @Test
+    void rollsOverToNewSegmentWhenFull() throws Exception {
+        int count = RECORDS_PER_SEGMENT + 100;
+        journal = open();
+        assertThat(journal.append(transactions(1, count))).isEqualTo(count);
+        assertThat(segmentFiles()).containsExactly(segmentFile(1), segmentFile(RECORDS_PER_SEGMENT + 1));
+
+        // Reads continue across the segment boundary, also after reopening
+        assertAmounts(journal.readAfter(RECORDS_PER_SEGMENT - 10, 20, 0),
+                RECORDS_PER_SEGMENT - 9, RECORDS_PER_SEGMENT + 10);
+        journal.close();
+        journal = open();
+        assertThat(journal.getLastSequence()).isEqualTo(count);
+        assertAmounts(journal.readAfter(RECORDS_PER_SEGMENT - 5, 10, 0),
+                RECORDS_PER_SEGMENT - 4, RECORDS_PER_SEGMENT + 5);
+
+        // The first segment is deleted once all of its transactions are applied, the segment appended to is kept
+        journal.deleteAppliedSegments(RECORDS_PER_SEGMENT - 1);
+        assertThat(segmentFiles()).hasSize(2);
+        journal.deleteAppliedSegments(count);
+        assertThat(segmentFiles()).containsExactly(segmentFile(RECORDS_PER_SEGMENT + 1));
+        assertAmounts(journal.readAfter(count - 3, 10, 0), count - 2, count);
+    }
+
+    @Test
+    void invalidTransactionAppendsNothing() throws Exception {
+        journal = open();
+        journal.append(transactions(1, 2));
+
+        List<UpdateBalancePayload> batch = transactions(3, 3);
+        batch.get(2).setCreditCardNumber("4".repeat(Short.MAX_VALUE + 1));
+        assertThatThrownBy(() -> journal.append(batch)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(journal.getLastSequence()).isEqualTo(2);
+
+        // Nothing of the batch is recovered, and the next append continues after the last appended transaction
+        journal.close();
+        journal = open();
+        assertThat(journal.getLastSequence()).isEqualTo(2);
+        assertThat(journal.append(transactions(3, 1))).isEqualTo(3);
+        assertAmounts(journal.readAfter(0, 10, 0), 1, 3);
+    }
+
+    @Test
+    void failedRollOverAppendsNothing() throws Exception {
+        journal = open();
+        journal.append(transactions(1, RECORDS_PER_SEGMENT - 5));
+        // A directory where the next segment would be created makes creating it fail
+        Path blocker = Files.createDirectory(segmentFile(RECORDS_PER_SEGMENT + 1));
+
+        assertThatThrownBy(() -> journal.append(transactions(RECORDS_PER_SEGMENT - 4, 10)))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(journal.getLastSequence()).isEqualTo(RECORDS_PER_SEGMENT - 5);
+
+        // The records written to the first segment before the failure are not recovered
+        Files.delete(blocker);
+        journal.close();
+        journal = open();
+        assertThat(journal.getLastSequence()).isEqualTo(RECORDS_PER_SEGMENT - 5);
+        assertThat(journal.append(transactions(RECORDS_PER_SEGMENT - 4, 10))).isEqualTo(RECORDS_PER_SEGMENT + 5);
+        assertAmounts(journal.readAfter(RECORDS_PER_SEGMENT - 10, 20, 0), RECORDS_PER_SEGMENT - 9,
+                RECORDS_PER_SEGMENT + 5);
+    }
+
+    @Test
+    void readingFromDeletedSegmentFails() throws Exception {
+        journal = open();
+        journal.append(transactions(1, RECORDS_PER_SEGMENT + 10));
+        journal.deleteAppliedSegments(RECORDS_PER_SEGMENT);
+
+        assertThatThrownBy(() -> journal.readAfter(5, 10, 0))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("cannot be read from sequence 6");
+        assertAmounts(journal.readAfter(RECORDS_PER_SEGMENT, 10, 0), RECORDS_PER_SEGMENT + 1,
+                RECORDS_PER_SEGMENT + 10);
+    }
+
+    private BalanceJournal open() throws IOException {
+        BalanceJournal balanceJournal = new BalanceJournal(directory, 1, FsyncPolicy.EVERY_APPEND, 100);
+        balanceJournal.open();
+        return balanceJournal;
+    }
+
+    private Path segmentFile(long firstSequence) {
+        return directory.resolve(String.format("%020d.journal", firstSequence));
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().toList();
+        }
+    }
+
+    /**
+     * Creates transactions whose amount is the sequence number they are expected to get.
+     */
+    private static List<UpdateBalancePayload> transactions(long firstSequence, int count) {
+        List<UpdateBalancePayload> transactions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            UpdateBalancePayload transaction = new UpdateBalancePayload();
+            transaction.setCreditCardNumber(CARD_NUMBER);
+            transaction.setTransactionTime(Instant.ofEpochMilli(1_700_000_000_000L + i));
+            transaction.setTransactionAmount(firstSequence + i);
+            transactions.add(transaction);
+        }
+        return transactions;
+    }
+
+    private static void assertAmounts(List<JournalEntry> entries, long firstSequence, long lastSequence) {
+        assertThat(entries).hasSize((int) (lastSequence - firstSequence + 1));
+        for (int i = 0; i < entries.size(); i++) {
+            assertThat(entries.get(i).sequence()).isEqualTo(firstSequence + i);
+            assertThat(entries.get(i).transaction().getCreditCardNumber()).isEqualTo(CARD_NUMBER);
+            assertThat(entries.get(i).transaction().getTransactionAmount()).isEqualTo((double) (firstSequence + i));
+        }
+    }
+}
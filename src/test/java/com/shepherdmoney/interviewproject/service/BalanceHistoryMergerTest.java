@@ -0,0 +1,98 @@
+package com.shepherdmoney.interviewproject.service;
+
+import com.shepherdmoney.interviewproject.model.BalanceHistory;
+import com.shepherdmoney.interviewproject.model.CreditCard;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+class BalanceHistoryMergerTest {
+
+    private static final LocalDate DAY = LocalDate.of(2024, 3, 10);
+
+    private final CreditCard card = new CreditCard();
+
+    @Test
+    void firstEverTransactionsCreateOneChangePointPerDay() {
+        List<BalanceHistory> created = BalanceHistoryMerger.merge(card, 0, List.of(),
+                days(DAY, DAY, DAY.plusDays(2)), new double[]{10, 5, -3}, 3);
+
+        assertThat(created)
+                .extracting(BalanceHistory::getDate, BalanceHistory::getBalance)
+                .containsExactly(tuple(DAY, 15.0), tuple(DAY.plusDays(2), 12.0));
+        assertThat(created).allSatisfy(changePoint -> assertThat(changePoint.getCard()).isSameAs(card));
+    }
+
+    @Test
+    void sameDayTransactionUpdatesExistingChangePoint() {
+        BalanceHistory first = changePoint(DAY, 100);
+        BalanceHistory later = changePoint(DAY.plusDays(5), 150);
+
+        List<BalanceHistory> created = BalanceHistoryMerger.merge(card, 0, List.of(first, later),
+                days(DAY), new double[]{20}, 1);
+
+        assertThat(created).isEmpty();
+        assertThat(first.getBalance()).isEqualTo(120);
+        assertThat(later.getBalance()).isEqualTo(170);
+    }
+
+    @Test
+    void backdatedTransactionCreatesChangePointAndShiftsLaterOnes() {
+        BalanceHistory first = changePoint(DAY, 100);
+        BalanceHistory later = changePoint(DAY.plusDays(5), 150);
+
+        List<BalanceHistory> created = BalanceHistoryMerger.merge(card, 40, List.of(first, later),
+                days(DAY.minusDays(3)), new double[]{10}, 1);
+
+        assertThat(created)
+                .extracting(BalanceHistory::getDate, BalanceHistory::getBalance)
+                .containsExactly(tuple(DAY.minusDays(3), 50.0));
+        assertThat(first.getBalance()).isEqualTo(110);
+        assertThat(later.getBalance()).isEqualTo(160);
+    }
+
+    @Test
+    void transactionBetweenChangePointsStartsFromEarlierBalance() {
+        BalanceHistory first = changePoint(DAY, 100);
+        BalanceHistory later = changePoint(DAY.plusDays(5), 150);
+
+        List<BalanceHistory> created = BalanceHistoryMerger.merge(card, 0, List.of(first, later),
+                days(DAY.plusDays(2), DAY.plusDays(8)), new double[]{7, 1}, 2);
+
+        assertThat(created)
+                .extracting(BalanceHistory::getDate, BalanceHistory::getBalance)
+                .containsExactly(tuple(DAY.plusDays(2), 107.0), tuple(DAY.plusDays(8), 158.0));
+        assertThat(first.getBalance()).isEqualTo(100);
+        assertThat(later.getBalance()).isEqualTo(157);
+    }
+
+    @Test
+    void onlyReadsTransactionCountTransactions() {
+        List<BalanceHistory> created = BalanceHistoryMerger.merge(card, 0, List.of(),
+                days(DAY, DAY.plusDays(1)), new double[]{10, 99}, 1);
+
+        assertThat(created)
+                .extracting(BalanceHistory::getDate, BalanceHistory::getBalance)
+                .containsExactly(tuple(DAY, 10.0));
+    }
+
+    private BalanceHistory changePoint(LocalDate date, double balance) {
+        BalanceHistory changePoint = new BalanceHistory();
+        changePoint.setCard(card);
+        changePoint.setDate(date);
+        changePoint.setBalance(balance);
+        return changePoint;
+    }
+
+    private static long[] days(LocalDate... dates) {
+        long[] days = new long[dates.length];
+        for (int i = 0; i < dates.length; i++) {
+            days[i] = dates[i].toEpochDay();
+        }
+        return days;
+    }
+}
@@ -0,0 +1,195 @@
+package com.shepherdmoney.interviewproject.service;
+
+import com.shepherdmoney.interviewproject.model.BalanceHistory;
+import com.shepherdmoney.interviewproject.model.CreditCard;
+import com.shepherdmoney.interviewproject.model.JobCheckpoint;
+import com.shepherdmoney.interviewproject.model.MonthlyBalanceRollup;
+import com.shepherdmoney.interviewproject.model.User;
+import com.shepherdmoney.interviewproject.repository.BalanceHistoryRepository;
+import com.shepherdmoney.interviewproject.repository.CreditCardRepository;
+import com.shepherdmoney.interviewproject.repository.JobCheckpointRepository;
+import com.shepherdmoney.interviewproject.repository.MonthlyBalanceRollupRepository;
+import com.shepherdmoney.interviewproject.repository.UserRepository;
+import com.shepherdmoney.interviewproject.vo.response.BalanceHistoryView;
+import com.shepherdmoney.interviewproject.vo.response.ReconciliationReport;
+import org.assertj.core.groups.Tuple;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:balance-history-reconciler-test;DB_CLOSE_DELAY=-1",
+        "balance-history-reconciliation.max-cards-per-second=0"})
+class BalanceHistoryReconcilerTest {
+
+    // Name of the checkpoint without sharding
+    private static final String CHECKPOINT_NAME = "balance-history-reconciliation";
+
+    private static final YearMonth JANUARY = YearMonth.of(2024, 1);
+    private static final YearMonth FEBRUARY = YearMonth.of(2024, 2);
+    private static final YearMonth MARCH = YearMonth.of(2024, 3);
+
+    @Autowired
+    private BalanceHistoryReconciler balanceHistoryReconciler;
+    @Autowired
+    private BalanceHistoryRepository balanceHistoryRepository;
+    @Autowired
+    private MonthlyBalanceRollupRepository monthlyBalanceRollupRepository;
+    @Autowired
+    private JobCheckpointRepository jobCheckpointRepository;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private CreditCardRepository creditCardRepository;
+
+    private User user;
+
+    @BeforeEach
+    void createUser() {
+        user = new User();
+        user.setName("Test User");
+        user.setEmail("test@example.com");
+        userRepository.save(user);
+    }
+
+    @AfterEach
+    void clearHistories() {
+        // Cards without change points or rollups have nothing to repair, so they do not affect the other tests
+        balanceHistoryRepository.deleteAll();
+        monthlyBalanceRollupRepository.deleteAll();
+        jobCheckpointRepository.deleteAll();
+    }
+
+    @Test
+    void repairsDriftedRollupsAndCompactsRedundantChangePoints() throws InterruptedException {
+        CreditCard card = createDriftedCard();
+
+        ReconciliationReport report = run(false, true);
+
+        // January differs, February is missing and March only had the redundant change point
+        assertThat(report.getRedundantChangePoints()).isEqualTo(1);
+        assertThat(report.getDriftedRollups()).isEqualTo(3);
+        assertThat(report.getCardsRepaired()).isEqualTo(1);
+        assertThat(balanceHistoryRepository.findAllViews(card.getId())).containsExactly(
+                new BalanceHistoryView(JANUARY.atDay(21), 100),
+                new BalanceHistoryView(FEBRUARY.atDay(11), 40));
+        assertThat(rollups(card)).containsExactly(
+                tuple(JANUARY.atDay(1), 0.0, 100.0, 1100.0, 100.0),
+                tuple(FEBRUARY.atDay(1), 40.0, 100.0, 1760.0, 40.0));
+        // A finished run is not resumed
+        assertThat(jobCheckpointRepository.findById(CHECKPOINT_NAME)).get()
+                .extracting(JobCheckpoint::getPosition).isEqualTo(0L);
+    }
+
+    @Test
+    void dryRunOnlyReports() throws InterruptedException {
+        CreditCard card = createDriftedCard();
+
+        ReconciliationReport report = run(true, false);
+
+        // Without compaction March is expected, so only January and February drifted
+        assertThat(report.getRedundantChangePoints()).isEqualTo(1);
+        assertThat(report.getDriftedRollups()).isEqualTo(2);
+        assertThat(report.getCardsRepaired()).isZero();
+        assertThat(balanceHistoryRepository.findAllViews(card.getId())).hasSize(3);
+        assertThat(rollups(card)).containsExactly(
+                tuple(JANUARY.atDay(1), 0.0, 100.0, 0.0, 100.0),
+                tuple(MARCH.atDay(1), 40.0, 40.0, 1240.0, 40.0));
+    }
+
+    @Test
+    void resumesAfterCheckpoint() throws InterruptedException {
+        CreditCard checkedCard = createDriftedCard();
+        CreditCard uncheckedCard = createDriftedCard();
+        // As if a previous run stopped after the page that ended with checkedCard
+        JobCheckpoint checkpoint = new JobCheckpoint();
+        checkpoint.setName(CHECKPOINT_NAME);
+        checkpoint.setPosition(checkedCard.getId());
+        jobCheckpointRepository.save(checkpoint);
+
+        ReconciliationReport report = run(false, false);
+
+        assertThat(report.getCardsScanned()).isEqualTo(1);
+        assertThat(report.getLastCardId()).isEqualTo(uncheckedCard.getId());
+        assertThat(report.getCardsRepaired()).isEqualTo(1);
+        assertThat(rollups(checkedCard)).hasSize(2);
+        assertThat(rollups(uncheckedCard)).containsExactly(
+                tuple(JANUARY.atDay(1), 0.0, 100.0, 1100.0, 100.0),
+                tuple(FEBRUARY.atDay(1), 40.0, 100.0, 1760.0, 40.0),
+                tuple(MARCH.atDay(1), 40.0, 40.0, 1240.0, 40.0));
+    }
+
+    /**
+     * Starts a run and waits for it to finish.
+     */
+    private ReconciliationReport run(boolean dryRun, boolean compact) throws InterruptedException {
+        assertThat(balanceHistoryReconciler.start(dryRun, compact)).isTrue();
+        for (int i = 0; i < 1000 && balanceHistoryReconciler.getReport().isRunning(); i++) {
+            Thread.sleep(10);
+        }
+        ReconciliationReport report = balanceHistoryReconciler.getReport();
+        assertThat(report.isRunning()).isFalse();
+        assertThat(report.getError()).isNull();
+        return report;
+    }
+
+    /**
+     * Creates a card whose change points are 100 on January 21, 40 on February 11 and again 40 on March 5, with a
+     * January rollup whose sum is wrong, no February rollup and a March rollup.
+     */
+    private CreditCard createDriftedCard() {
+        CreditCard card = new CreditCard();
+        card.setIssuanceBank("Test Bank");
+        card.setNumber(UUID.randomUUID().toString());
+        card.setOwner(user);
+        creditCardRepository.save(card);
+
+        balanceHistoryRepository.saveAll(List.of(
+                changePoint(card, JANUARY.atDay(21), 100),
+                changePoint(card, FEBRUARY.atDay(11), 40),
+                changePoint(card, MARCH.atDay(5), 40)));
+        monthlyBalanceRollupRepository.saveAll(List.of(
+                rollup(card, JANUARY, 0, 100, 0, 100),
+                rollup(card, MARCH, 40, 40, 1240, 40)));
+        return card;
+    }
+
+    private List<Tuple> rollups(CreditCard card) {
+        return monthlyBalanceRollupRepository.findByCardIdIn(List.of(card.getId())).stream()
+                .sorted(Comparator.comparing(MonthlyBalanceRollup::getMonthStart))
+                .map(rollup -> tuple(rollup.getMonthStart(), rollup.getMinBalance(), rollup.getMaxBalance(),
+                        rollup.getBalanceSum(), rollup.getEndBalance()))
+                .toList();
+    }
+
+    private static BalanceHistory changePoint(CreditCard card, LocalDate date, double balance) {
+        BalanceHistory changePoint = new BalanceHistory();
+        changePoint.setCard(card);
+        changePoint.setDate(date);
+        changePoint.setBalance(balance);
+        return changePoint;
+    }
+
+    private static MonthlyBalanceRollup rollup(CreditCard card, YearMonth month, double min, double max, double sum,
+                                               double end) {
+        MonthlyBalanceRollup rollup = new MonthlyBalanceRollup();
+        rollup.setCard(card);
+        rollup.setMonthStart(month.atDay(1));
+        rollup.setMinBalance(min);
+        rollup.setMaxBalance(max);
+        rollup.setBalanceSum(sum);
+        rollup.setEndBalance(end);
+        return rollup;
+    }
+}
@@ -0,0 +1,192 @@
+package com.shepherdmoney.interviewproject.service;
+
+import com.shepherdmoney.interviewproject.model.CreditCard;
+import com.shepherdmoney.interviewproject.model.User;
+import com.shepherdmoney.interviewproject.repository.BalanceHistoryRepository;
+import com.shepherdmoney.interviewproject.repository.CreditCardRepository;
+import com.shepherdmoney.interviewproject.repository.UserRepository;
+import com.shepherdmoney.interviewproject.vo.request.BalanceGranularity;
+import com.shepherdmoney.interviewproject.vo.request.UpdateBalancePayload;
+import com.shepherdmoney.interviewproject.vo.response.BalanceHistoryView;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:balance-history-service-test;DB_CLOSE_DELAY=-1")
+class BalanceHistoryServiceTest {
+
+    private static final LocalDate TODAY = LocalDate.now(ZoneOffset.UTC);
+
+    // Weeks of balance series end on Sunday
+    private static final LocalDate WEDNESDAY = LocalDate.of(2024, 1, 10);
+
+    @Autowired
+    private BalanceHistoryService balanceHistoryService;
+    @Autowired
+    private BalanceHistoryRepository balanceHistoryRepository;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private CreditCardRepository creditCardRepository;
+
+    private String cardNumber;
+    private int cardId;
+
+    @BeforeEach
+    void createCard() {
+        User user = new User();
+        user.setName("Test User");
+        user.setEmail("test@example.com");
+        userRepository.save(user);
+
+        cardNumber = UUID.randomUUID().toString();
+        CreditCard card = new CreditCard();
+        card.setIssuanceBank("Test Bank");
+        card.setNumber(cardNumber);
+        card.setOwner(user);
+        cardId = creditCardRepository.save(card).getId();
+    }
+
+    @Test
+    void firstEverTransactionCreatesChangePoint() {
+        apply(transaction(TODAY.minusDays(5), LocalTime.NOON, 100));
+
+        assertThat(balanceHistoryRepository.findAllViews(cardId))
+                .containsExactly(new BalanceHistoryView(TODAY.minusDays(5), 100));
+        assertThat(balanceHistoryService.getBalanceOn(cardId, TODAY.minusDays(5))).isEqualTo(100);
+        assertThat(balanceHistoryService.getCurrentBalance(cardId)).isEqualTo(100);
+    }
+
+    @Test
+    void balanceBeforeFirstChangePointIsZero() {
+        assertThat(balanceHistoryService.getBalanceOn(cardId, TODAY)).isZero();
+
+        apply(transaction(TODAY.minusDays(5), LocalTime.NOON, 100));
+
+        assertThat(balanceHistoryService.getBalanceOn(cardId, TODAY.minusDays(6))).isZero();
+    }
+
+    @Test
+    void sameDayTransactionsShareOneChangePoint() {
+        apply(transaction(TODAY.minusDays(3), LocalTime.of(9, 0), 100));
+        apply(transaction(TODAY.minusDays(3), LocalTime.of(18, 0), -40));
+
+        assertThat(balanceHistoryRepository.findAllViews(cardId))
+                .containsExactly(new BalanceHistoryView(TODAY.minusDays(3), 60));
+    }
+
+    @Test
+    void backdatedTransactionShiftsLaterChangePoints() {
+        apply(transaction(TODAY.minusDays(2), LocalTime.NOON, 100));
+        apply(transaction(TODAY.minusDays(10), LocalTime.NOON, 30));
+
+        assertThat(balanceHistoryRepository.findAllViews(cardId)).containsExactly(
+                new BalanceHistoryView(TODAY.minusDays(10), 30),
+                new BalanceHistoryView(TODAY.minusDays(2), 130));
+        assertThat(balanceHistoryService.getBalanceOn(cardId, TODAY.minusDays(11))).isZero();
+        assertThat(balanceHistoryService.getBalanceOn(cardId, TODAY.minusDays(5))).isEqualTo(30);
+        assertThat(balanceHistoryService.getCurrentBalance(cardId)).isEqualTo(130);
+    }
+
+    @Test
+    void emptyRangeHasNoPoints() {
+        apply(transaction(WEDNESDAY, LocalTime.NOON, 100));
+
+        assertThat(balanceHistoryService.getBalanceSeries(cardId, WEDNESDAY, WEDNESDAY.minusDays(1),
+                BalanceGranularity.DAY, 10)).isEmpty();
+    }
+
+    @Test
+    void singleDayRangeHasOnePoint() {
+        apply(transaction(WEDNESDAY, LocalTime.NOON, 100));
+
+        assertThat(balanceHistoryService.getBalanceSeries(cardId, WEDNESDAY.plusDays(1), WEDNESDAY.plusDays(1),
+                BalanceGranularity.DAY, 10)).containsExactly(new BalanceHistoryView(WEDNESDAY.plusDays(1), 100));
+        // The point of a period cut short by endDate is on endDate
+        assertThat(balanceHistoryService.getBalanceSeries(cardId, WEDNESDAY, WEDNESDAY, BalanceGranularity.WEEK, 10))
+                .containsExactly(new BalanceHistoryView(WEDNESDAY, 100));
+    }
+
+    @Test
+    void pointsAreAtEndOfEachPeriod() {
+        LocalDate sunday = WEDNESDAY.plusDays(4);
+        apply(transaction(WEDNESDAY, LocalTime.NOON, 100));
+        apply(transaction(sunday, LocalTime.NOON, 50));
+        apply(transaction(sunday.plusDays(1), LocalTime.NOON, 25));
+
+        // The change point on Sunday is the last one of the first week, the one on Monday starts the next week
+        assertThat(balanceHistoryService.getBalanceSeries(cardId, WEDNESDAY, sunday.plusDays(10),
+                BalanceGranularity.WEEK, 10)).containsExactly(
+                new BalanceHistoryView(sunday, 150),
+                new BalanceHistoryView(sunday.plusDays(7), 175),
+                new BalanceHistoryView(sunday.plusDays(10), 175));
+        assertThat(balanceHistoryService.getBalanceSeries(cardId, LocalDate.of(2024, 1, 1), LocalDate.of(2024, 3, 10),
+                BalanceGranularity.MONTH, 10)).containsExactly(
+                new BalanceHistoryView(LocalDate.of(2024, 1, 31), 175),
+                new BalanceHistoryView(LocalDate.of(2024, 2, 29), 175),
+                new BalanceHistoryView(LocalDate.of(2024, 3, 10), 175));
+    }
+
+    @Test
+    void nextPageStartsOnDayAfterLastPoint() {
+        apply(transaction(WEDNESDAY, LocalTime.NOON, 100));
+        apply(transaction(WEDNESDAY.plusDays(6), LocalTime.NOON, -30));
+        LocalDate startDate = WEDNESDAY.minusDays(2);
+        LocalDate endDate = WEDNESDAY.plusDays(10);
+
+        List<BalanceHistoryView> firstPage = balanceHistoryService.getBalanceSeries(cardId, startDate, endDate,
+                BalanceGranularity.DAY, 5);
+        assertThat(firstPage).hasSize(5);
+        LocalDate nextStartDate = firstPage.get(firstPage.size() - 1).getDate().plusDays(1);
+        List<BalanceHistoryView> secondPage = balanceHistoryService.getBalanceSeries(cardId, nextStartDate, endDate,
+                BalanceGranularity.DAY, 5);
+        nextStartDate = secondPage.get(secondPage.size() - 1).getDate().plusDays(1);
+        List<BalanceHistoryView> lastPage = balanceHistoryService.getBalanceSeries(cardId, nextStartDate, endDate,
+                BalanceGranularity.DAY, 5);
+
+        // The pages together are the whole series, which spans 13 days
+        assertThat(lastPage).hasSize(3);
+        List<BalanceHistoryView> pages = new ArrayList<>(firstPage);
+        pages.addAll(secondPage);
+        pages.addAll(lastPage);
+        assertThat(pages).isEqualTo(balanceHistoryService.getBalanceSeries(cardId, startDate, endDate,
+                BalanceGranularity.DAY, 100));
+        assertThat(pages.get(1).getBalance()).isZero();
+        assertThat(pages.get(2).getBalance()).isEqualTo(100);
+        assertThat(pages.get(8).getBalance()).isEqualTo(70);
+    }
+
+    @Test
+    void transactionOfUnknownCardIsSkipped() {
+        UpdateBalancePayload unknownCard = transaction(TODAY.minusDays(1), LocalTime.NOON, 10);
+        unknownCard.setCreditCardNumber(UUID.randomUUID().toString());
+
+        assertThat(balanceHistoryService.applyValidTransactions(
+                List.of(transaction(TODAY.minusDays(1), LocalTime.NOON, 100), unknownCard)))
+                .containsExactly(null, "Transaction refers to a credit card that does not exist.");
+        assertThat(balanceHistoryRepository.findAllViews(cardId))
+                .containsExactly(new BalanceHistoryView(TODAY.minusDays(1), 100));
+    }
+
+    private void apply(UpdateBalancePayload transaction) {
+        assertThat(balanceHistoryService.applyValidTransactions(List.of(transaction))).containsOnlyNulls();
+    }
+
+    private UpdateBalancePayload transaction(LocalDate date, LocalTime time, double amount) {
+        UpdateBalancePayload transaction = new UpdateBalancePayload();
+        transaction.setCreditCardNumber(cardNumber);
+        transaction.setTransactionTime(date.atTime(time).toInstant(ZoneOffset.UTC));
+        transaction.setTransactionAmount(amount);
+        return transaction;
+    }
+}
@@ -0,0 +1,172 @@
+package com.shepherdmoney.interviewproject.service;
+
+import com.shepherdmoney.interviewproject.repository.BalanceHistoryRepository;
+import com.shepherdmoney.interviewproject.vo.response.BalanceHistoryView;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BalanceSeriesCacheTest {
+
+    private static final int CARD_ID = 7;
+
+    private final BalanceHistoryRepository balanceHistoryRepository = mock(BalanceHistoryRepository.class);
+
+    private BalanceSeriesCache cache;
+
+    @BeforeEach
+    void createCache() {
+        cache = new BalanceSeriesCache(true, 100);
+        ReflectionTestUtils.setField(cache, "balanceHistoryRepository", balanceHistoryRepository);
+        // Change points on days 10 and 20
+        when(balanceHistoryRepository.findAllViews(CARD_ID)).thenReturn(List.of(view(10, 100), view(20, 150)));
+    }
+
+    @AfterEach
+    void clearSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void balanceOnFindsChangePointAtOrBeforeDay() {
+        BalanceSeriesCache.BalanceSeries series = cache.get(CARD_ID);
+
+        assertThat(series.balanceOn(9)).isZero();
+        assertThat(series.balanceOn(10)).isEqualTo(100);
+        assertThat(series.balanceOn(15)).isEqualTo(100);
+        assertThat(series.balanceOn(20)).isEqualTo(150);
+        assertThat(series.balanceOn(30)).isEqualTo(150);
+        assertThat(series.currentBalance()).isEqualTo(150);
+        assertThat(BalanceSeriesCache.BalanceSeries.of(List.of()).balanceOn(10)).isZero();
+    }
+
+    @Test
+    void committedTransactionBetweenChangePointsInsertsChangePoint() {
+        cache.get(CARD_ID);
+
+        commit(() -> cache.applyAfterCommit(CARD_ID, new long[]{15}, new double[]{30}));
+
+        BalanceSeriesCache.BalanceSeries series = cache.get(CARD_ID);
+        assertThat(series.balanceOn(12)).isEqualTo(100);
+        assertThat(series.balanceOn(15)).isEqualTo(130);
+        assertThat(series.balanceOn(20)).isEqualTo(180);
+        // The series was patched rather than reloaded
+        verify(balanceHistoryRepository, times(1)).findAllViews(CARD_ID);
+    }
+
+    @Test
+    void committedBackdatedTransactionsShiftLaterBalances() {
+        cache.get(CARD_ID);
+
+        // Before the first change point, twice on the day of a change point and after the last one
+        commit(() -> cache.applyAfterCommit(CARD_ID, new long[]{5, 10, 10, 25}, new double[]{10, -20, 5, 1}));
+
+        BalanceSeriesCache.BalanceSeries series = cache.get(CARD_ID);
+        assertThat(series.balanceOn(4)).isZero();
+        assertThat(series.balanceOn(5)).isEqualTo(10);
+        assertThat(series.balanceOn(10)).isEqualTo(95);
+        assertThat(series.balanceOn(20)).isEqualTo(145);
+        assertThat(series.balanceOn(25)).isEqualTo(146);
+        verify(balanceHistoryRepository, times(1)).findAllViews(CARD_ID);
+    }
+
+    @Test
+    void rolledBackTransactionLeavesSeriesUnchanged() {
+        BalanceSeriesCache.BalanceSeries series = cache.get(CARD_ID);
+
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK,
+                () -> cache.applyAfterCommit(CARD_ID, new long[]{15}, new double[]{30}));
+
+        assertThat(cache.get(CARD_ID)).isSameAs(series);
+        assertThat(cache.get(CARD_ID).balanceOn(20)).isEqualTo(150);
+        verify(balanceHistoryRepository, times(1)).findAllViews(CARD_ID);
+    }
+
+    @Test
+    void transactionWithUnknownOutcomeEvictsSeries() {
+        cache.get(CARD_ID);
+
+        complete(TransactionSynchronization.STATUS_UNKNOWN,
+                () -> cache.applyAfterCommit(CARD_ID, new long[]{15}, new double[]{30}));
+
+        cache.get(CARD_ID);
+        verify(balanceHistoryRepository, times(2)).findAllViews(CARD_ID);
+    }
+
+    @Test
+    void loadRacingWithInvalidationIsNotCached() {
+        // The card is invalidated while its change points are being read
+        when(balanceHistoryRepository.findAllViews(CARD_ID)).thenAnswer(invocation -> {
+            cache.invalidate(CARD_ID);
+            return List.of(view(10, 100));
+        });
+        cache.get(CARD_ID);
+        cache.get(CARD_ID);
+
+        verify(balanceHistoryRepository, times(2)).findAllViews(CARD_ID);
+    }
+
+    @Test
+    void loadDuringUncommittedUpdateIsNotCached() {
+        commit(() -> {
+            cache.applyAfterCommit(CARD_ID, new long[]{15}, new double[]{30});
+            // The load may or may not see the uncommitted change point
+            cache.get(CARD_ID);
+        });
+        cache.get(CARD_ID);
+
+        verify(balanceHistoryRepository, times(2)).findAllViews(CARD_ID);
+    }
+
+    @Test
+    void invalidationDuringUpdateIsNotUndoneByPatch() {
+        cache.get(CARD_ID);
+
+        commit(() -> {
+            cache.applyAfterCommit(CARD_ID, new long[]{15}, new double[]{30});
+            // For example, the change points of the card are compacted by another transaction
+            cache.invalidate(CARD_ID);
+        });
+
+        assertThat(cache.get(CARD_ID).balanceOn(20)).isEqualTo(150);
+        verify(balanceHistoryRepository, times(2)).findAllViews(CARD_ID);
+    }
+
+    private static void commit(Runnable work) {
+        complete(TransactionSynchronization.STATUS_COMMITTED, work);
+    }
+
+    /**
+     * Runs work as if in a database transaction, then completes the transaction with the given status.
+     */
+    private static void complete(int status, Runnable work) {
+        TransactionSynchronizationManager.initSynchronization();
+        work.run();
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        for (TransactionSynchronization synchronization : synchronizations) {
+            if (status == TransactionSynchronization.STATUS_COMMITTED) {
+                synchronization.afterCommit();
+            }
+            synchronization.afterCompletion(status);
+        }
+    }
+
+    private static BalanceHistoryView view(int epochDay, double balance) {
+        return new BalanceHistoryView(LocalDate.ofEpochDay(epochDay), balance);
+    }
+}
@@ -0,0 +1,113 @@
+package com.shepherdmoney.interviewproject.service;
+
+import com.shepherdmoney.interviewproject.model.CreditCard;
+import com.shepherdmoney.interviewproject.model.User;
+import com.shepherdmoney.interviewproject.repository.BalanceHistoryRepository;
+import com.shepherdmoney.interviewproject.repository.CreditCardRepository;
+import com.shepherdmoney.interviewproject.repository.UserRepository;
+import com.shepherdmoney.interviewproject.vo.request.UpdateBalancePayload;
+import com.shepherdmoney.interviewproject.vo.response.BalanceHistoryView;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doThrow;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:card-write-lanes-test;DB_CLOSE_DELAY=-1",
+        "card-write-lanes.count=" + CardWriteLanesTest.LANE_COUNT})
+class CardWriteLanesTest {
+
+    static final int LANE_COUNT = 2;
+
+    private static final LocalDate YESTERDAY = LocalDate.now(ZoneOffset.UTC).minusDays(1);
+
+    @Autowired
+    private CardWriteLanes cardWriteLanes;
+    @SpyBean
+    private BalanceHistoryService balanceHistoryService;
+    @Autowired
+    private BalanceHistoryRepository balanceHistoryRepository;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private CreditCardRepository creditCardRepository;
+
+    private User user;
+
+    @BeforeEach
+    void createUser() {
+        user = new User();
+        user.setName("Test User");
+        user.setEmail("test@example.com");
+        userRepository.save(user);
+    }
+
+    @Test
+    void failedLaneOnlyRollsBackItsOwnCards() {
+        String appliedCardNumber = cardNumberInLane(0);
+        String failingCardNumber = cardNumberInLane(1);
+        int appliedCardId = createCard(appliedCardNumber);
+        int failingCardId = createCard(failingCardNumber);
+        doThrow(new IllegalStateException("Lane failed")).when(balanceHistoryService).applyValidTransactions(
+                argThat(transactions -> transactions.stream()
+                        .anyMatch(transaction -> failingCardNumber.equals(transaction.getCreditCardNumber()))));
+
+        List<String> rejections = cardWriteLanes.applyTransactions(List.of(
+                transaction(appliedCardNumber, 100), transaction(failingCardNumber, 50),
+                transaction(appliedCardNumber, 20)));
+
+        assertThat(rejections).containsExactly(null, CardWriteLanes.PART_FAILED, null);
+        assertThat(balanceHistoryRepository.findAllViews(appliedCardId))
+                .containsExactly(new BalanceHistoryView(YESTERDAY, 120));
+        assertThat(balanceHistoryRepository.findAllViews(failingCardId)).isEmpty();
+    }
+
+    @Test
+    void invalidTransactionRejectsWholeBatch() {
+        String cardNumber = cardNumberInLane(0);
+        int cardId = createCard(cardNumber);
+
+        assertThatThrownBy(() -> cardWriteLanes.applyTransactions(List.of(
+                transaction(cardNumber, 100), transaction(UUID.randomUUID().toString(), 10))))
+                .isInstanceOf(InvalidTransactionException.class);
+        assertThat(balanceHistoryRepository.findAllViews(cardId)).isEmpty();
+    }
+
+    private int createCard(String cardNumber) {
+        CreditCard card = new CreditCard();
+        card.setIssuanceBank("Test Bank");
+        card.setNumber(cardNumber);
+        card.setOwner(user);
+        return creditCardRepository.save(card).getId();
+    }
+
+    /**
+     * Creates a card number that CardWriteLanes hashes to the given lane.
+     */
+    private static String cardNumberInLane(int lane) {
+        String cardNumber;
+        do {
+            cardNumber = UUID.randomUUID().toString();
+        } while (Math.floorMod(cardNumber.hashCode(), LANE_COUNT) != lane);
+        return cardNumber;
+    }
+
+    private static UpdateBalancePayload transaction(String cardNumber, double amount) {
+        UpdateBalancePayload transaction = new UpdateBalancePayload();
+        transaction.setCreditCardNumber(cardNumber);
+        transaction.setTransactionTime(YESTERDAY.atStartOfDay().toInstant(ZoneOffset.UTC));
+        transaction.setTransactionAmount(amount);
+        return transaction;
+    }
+}
@@ -0,0 +1,64 @@
+package com.shepherdmoney.interviewproject.service;
+
+import com.shepherdmoney.interviewproject.model.User;
+import com.shepherdmoney.interviewproject.repository.CreditCardRepository;
+import com.shepherdmoney.interviewproject.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.doReturn;
+
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:credit-card-service-test;DB_CLOSE_DELAY=-1")
+class CreditCardServiceTest {
+
+    @Autowired
+    private CreditCardService creditCardService;
+    @SpyBean
+    private CreditCardRepository creditCardRepository;
+    @Autowired
+    private UserRepository userRepository;
+
+    private int userId;
+
+    @BeforeEach
+    void createUser() {
+        User user = new User();
+        user.setName("Test User");
+        user.setEmail("test@example.com");
+        userId = userRepository.save(user).getId();
+    }
+
+    @Test
+    void addedCardBumpsUserVersion() {
+        String cardNumber = UUID.randomUUID().toString();
+
+        Optional<Integer> cardId = creditCardService.addCreditCard(userId, "Test Bank", cardNumber);
+
+        assertThat(cardId).isPresent();
+        assertThat(creditCardRepository.findNumberById(cardId.get())).contains(cardNumber);
+        assertThat(userRepository.findById(userId).orElseThrow().getVersion()).isEqualTo(1);
+    }
+
+    @Test
+    void cardOfUnknownUserIsNotAdded() {
+        assertThat(creditCardService.addCreditCard(-1, "Test Bank", UUID.randomUUID().toString())).isEmpty();
+    }
+
+    @Test
+    void cardNumberTakenAfterCheckIsNotAdded() {
+        String cardNumber = UUID.randomUUID().toString();
+        assertThat(creditCardService.addCreditCard(userId, "Test Bank", cardNumber)).isPresent();
+        // As if a concurrent request added the card between the check and the insert
+        doReturn(false).when(creditCardRepository).existsByNumber(cardNumber);
+
+        assertThat(creditCardService.addCreditCard(userId, "Test Bank", cardNumber)).isEmpty();
+        assertThat(userRepository.findById(userId).orElseThrow().getVersion()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,86 @@
+package com.shepherdmoney.interviewproject.service;
+
+import com.shepherdmoney.interviewproject.model.BalanceHistory;
+import com.shepherdmoney.interviewproject.model.MonthlyBalanceRollup;
+import org.assertj.core.groups.Tuple;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+class MonthlyBalanceRollupsTest {
+
+    private static final YearMonth JANUARY = YearMonth.of(2024, 1);
+    private static final YearMonth FEBRUARY = YearMonth.of(2024, 2);
+    private static final YearMonth MARCH = YearMonth.of(2024, 3);
+
+    @Test
+    void weightsBalancesByDaysAcrossMonthBoundary() {
+        List<MonthlyBalanceRollup> rollups = MonthlyBalanceRollups.compute(0,
+                List.of(changePoint(JANUARY.atDay(21), 100), changePoint(FEBRUARY.atDay(11), 40)), JANUARY);
+
+        // January: 20 days at 0 and 11 days at 100. February 2024: 10 days at 100 and 19 days at 40
+        assertThat(summaries(rollups)).containsExactly(
+                rollup(JANUARY, 0, 100, 1100, 100),
+                rollup(FEBRUARY, 40, 100, 1760, 40));
+        assertThat(rollups.get(0).getBalanceSum() / JANUARY.lengthOfMonth()).isEqualTo(1100.0 / 31);
+    }
+
+    @Test
+    void monthWithoutChangePointKeepsPriorBalance() {
+        List<MonthlyBalanceRollup> rollups = MonthlyBalanceRollups.compute(0,
+                List.of(changePoint(JANUARY.atDay(21), 100), changePoint(MARCH.atDay(11), 40)), JANUARY);
+
+        // March: 10 days at 100 and 21 days at 40
+        assertThat(summaries(rollups)).containsExactly(
+                rollup(JANUARY, 0, 100, 1100, 100),
+                rollup(FEBRUARY, 100, 100, 2900, 100),
+                rollup(MARCH, 40, 100, 1840, 40));
+    }
+
+    @Test
+    void changePointOnFirstDayReplacesPreviousBalanceForWholeMonth() {
+        List<MonthlyBalanceRollup> rollups = MonthlyBalanceRollups.compute(10,
+                List.of(changePoint(MARCH.atDay(1), 50)), MARCH);
+
+        assertThat(summaries(rollups)).containsExactly(rollup(MARCH, 50, 50, 1550, 50));
+    }
+
+    @Test
+    void changePointsBeforeFromMonthOnlySetStartingBalance() {
+        List<MonthlyBalanceRollup> rollups = MonthlyBalanceRollups.compute(0,
+                List.of(changePoint(JANUARY.atDay(21), 100), changePoint(MARCH.atDay(11), 40)), FEBRUARY);
+
+        assertThat(summaries(rollups)).containsExactly(
+                rollup(FEBRUARY, 100, 100, 2900, 100),
+                rollup(MARCH, 40, 100, 1840, 40));
+    }
+
+    @Test
+    void noRollupsWhenLastChangePointIsBeforeFromMonth() {
+        assertThat(MonthlyBalanceRollups.compute(0, List.of(changePoint(JANUARY.atDay(21), 100)), MARCH)).isEmpty();
+        assertThat(MonthlyBalanceRollups.compute(0, List.of(), MARCH)).isEmpty();
+    }
+
+    private static List<Tuple> summaries(List<MonthlyBalanceRollup> rollups) {
+        return rollups.stream()
+                .map(rollup -> tuple(rollup.getMonthStart(), rollup.getMinBalance(), rollup.getMaxBalance(),
+                        rollup.getBalanceSum(), rollup.getEndBalance()))
+                .toList();
+    }
+
+    private static Tuple rollup(YearMonth month, double min, double max, double sum, double end) {
+        return tuple(month.atDay(1), min, max, sum, end);
+    }
+
+    private static BalanceHistory changePoint(LocalDate date, double balance) {
+        BalanceHistory changePoint = new BalanceHistory();
+        changePoint.setDate(date);
+        changePoint.setBalance(balance);
+        return changePoint;
+    }
+}
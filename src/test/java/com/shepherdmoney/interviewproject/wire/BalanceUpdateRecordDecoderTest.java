@@ -0,0 +1,189 @@
+package com.shepherdmoney.interviewproject.wire;
+
+import com.shepherdmoney.interviewproject.vo.request.UpdateBalancePayload;
+import com.shepherdmoney.interviewproject.wire.BalanceUpdateRecordDecoder.Result;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BalanceUpdateRecordDecoderTest {
+
+    private static final Instant TIME = Instant.parse("2024-03-10T12:00:00Z");
+
+    @Test
+    void decodesEncodedRecords() throws IOException {
+        BalanceUpdateRecordDecoder decoder = decoder(encoded("4111", 12.34), encoded("5500", -7));
+        UpdateBalancePayload transaction = new UpdateBalancePayload();
+
+        assertThat(decoder.next(transaction)).isEqualTo(Result.RECORD);
+        assertThat(transaction.getCreditCardNumber()).isEqualTo("4111");
+        assertThat(transaction.getTransactionTime()).isEqualTo(TIME);
+        assertThat(transaction.getTransactionAmount()).isEqualTo(12.34);
+        assertThat(decoder.next(transaction)).isEqualTo(Result.RECORD);
+        assertThat(transaction.getCreditCardNumber()).isEqualTo("5500");
+        assertThat(transaction.getTransactionAmount()).isEqualTo(-7);
+        assertThat(decoder.next(transaction)).isEqualTo(Result.END);
+    }
+
+    @Test
+    void decodesRecordsDeliveredInSmallReads() throws IOException {
+        byte[] body = concat(encoded("4111", 1), encoded("5500", 2), encoded("4111", 3));
+        BalanceUpdateRecordDecoder decoder = new BalanceUpdateRecordDecoder(trickle(body, 3));
+        UpdateBalancePayload transaction = new UpdateBalancePayload();
+
+        for (double amount = 1; amount <= 3; amount++) {
+            assertThat(decoder.next(transaction)).isEqualTo(Result.RECORD);
+            assertThat(transaction.getTransactionAmount()).isEqualTo(amount);
+        }
+        assertThat(decoder.next(transaction)).isEqualTo(Result.END);
+    }
+
+    @Test
+    void truncatedLengthPrefixIsMalformed() throws IOException {
+        BalanceUpdateRecordDecoder decoder = decoder(encoded("4111", 1), new byte[]{0, 0});
+        UpdateBalancePayload transaction = new UpdateBalancePayload();
+
+        assertThat(decoder.next(transaction)).isEqualTo(Result.RECORD);
+        assertThat(decoder.next(transaction)).isEqualTo(Result.MALFORMED);
+    }
+
+    @Test
+    void recordEndingEarlyIsMalformed() throws IOException {
+        byte[] record = encoded("4111", 1);
+        BalanceUpdateRecordDecoder decoder = decoder(Arrays.copyOf(record, record.length - 1));
+
+        assertThat(decoder.next(new UpdateBalancePayload())).isEqualTo(Result.MALFORMED);
+    }
+
+    @Test
+    void recordLengthOutOfRangeIsMalformed() throws IOException {
+        byte[] oversized = ByteBuffer.allocate(Integer.BYTES + BalanceUpdateRecordFormat.MAX_RECORD_LENGTH + 1)
+                .putInt(BalanceUpdateRecordFormat.MAX_RECORD_LENGTH + 1)
+                .array();
+
+        assertThat(decoder(oversized).next(new UpdateBalancePayload())).isEqualTo(Result.MALFORMED);
+        assertThat(decoder(ByteBuffer.allocate(Integer.BYTES).putInt(-1).array()).next(new UpdateBalancePayload()))
+                .isEqualTo(Result.MALFORMED);
+    }
+
+    @Test
+    void cardNumberThatIsNotUtf8IsSkipped() throws IOException {
+        // 0xC3 starts a two-byte sequence that 0x28 cannot continue
+        BalanceUpdateRecordDecoder decoder = decoder(record(new byte[]{(byte) 0xC3, 0x28}), encoded("4111", 5));
+        UpdateBalancePayload transaction = new UpdateBalancePayload();
+
+        assertThat(decoder.next(transaction)).isEqualTo(Result.INVALID);
+        assertThat(transaction.getCreditCardNumber()).isNull();
+        assertThat(decoder.next(transaction)).isEqualTo(Result.RECORD);
+        assertThat(transaction.getCreditCardNumber()).isEqualTo("4111");
+    }
+
+    @Test
+    void cardNumberLengthOutOfRangeIsSkipped() throws IOException {
+        byte[] tooLong = new byte[BalanceUpdateRecordFormat.MAX_CARD_NUMBER_BYTES + 1];
+        Arrays.fill(tooLong, (byte) '4');
+        // Card number length past the end of the record
+        byte[] overrun = ByteBuffer.allocate(Integer.BYTES + Short.BYTES)
+                .putInt(Short.BYTES)
+                .putShort((short) 10)
+                .array();
+        BalanceUpdateRecordDecoder decoder = decoder(record(new byte[0]), record(tooLong), overrun,
+                encoded("4111", 5));
+
+        UpdateBalancePayload transaction = new UpdateBalancePayload();
+        assertThat(decoder.next(transaction)).isEqualTo(Result.INVALID);
+        assertThat(decoder.next(transaction)).isEqualTo(Result.INVALID);
+        assertThat(decoder.next(transaction)).isEqualTo(Result.INVALID);
+        assertThat(decoder.next(transaction)).isEqualTo(Result.RECORD);
+    }
+
+    @Test
+    void manyInvalidRecordsAreSkippedOneAtATime() throws IOException {
+        int invalidCount = 10_000;
+        byte[][] records = new byte[invalidCount + 1][];
+        Arrays.fill(records, record(new byte[0]));
+        records[invalidCount] = encoded("4111", 5);
+        BalanceUpdateRecordDecoder decoder = new BalanceUpdateRecordDecoder(trickle(concat(records), 64));
+
+        UpdateBalancePayload transaction = new UpdateBalancePayload();
+        for (int i = 0; i < invalidCount; i++) {
+            assertThat(decoder.next(transaction)).isEqualTo(Result.INVALID);
+        }
+        assertThat(decoder.next(transaction)).isEqualTo(Result.RECORD);
+        assertThat(transaction.getCreditCardNumber()).isEqualTo("4111");
+        assertThat(decoder.next(transaction)).isEqualTo(Result.END);
+    }
+
+    private static BalanceUpdateRecordDecoder decoder(byte[]... records) {
+        return new BalanceUpdateRecordDecoder(Channels.newChannel(new ByteArrayInputStream(concat(records))));
+    }
+
+    private static byte[] encoded(String cardNumber, double amount) {
+        UpdateBalancePayload transaction = new UpdateBalancePayload();
+        transaction.setCreditCardNumber(cardNumber);
+        transaction.setTransactionTime(TIME);
+        transaction.setTransactionAmount(amount);
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + Short.BYTES
+                + cardNumber.getBytes(StandardCharsets.UTF_8).length + 2 * Long.BYTES);
+        BalanceUpdateRecordFormat.encode(transaction, buffer);
+        return buffer.array();
+    }
+
+    /**
+     * Builds a record with the given card number bytes, which the encoder would not produce.
+     */
+    private static byte[] record(byte[] cardNumber) {
+        return ByteBuffer.allocate(Integer.BYTES + Short.BYTES + cardNumber.length + 2 * Long.BYTES)
+                .putInt(Short.BYTES + cardNumber.length + 2 * Long.BYTES)
+                .putShort((short) cardNumber.length)
+                .put(cardNumber)
+                .putLong(TIME.toEpochMilli())
+                .putLong(100)
+                .array();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteBuffer buffer = ByteBuffer.allocate(Arrays.stream(parts).mapToInt(part -> part.length).sum());
+        for (byte[] part : parts) {
+            buffer.put(part);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Creates a channel that returns at most readSize bytes per read.
+     */
+    private static ReadableByteChannel trickle(byte[] body, int readSize) {
+        ByteBuffer source = ByteBuffer.wrap(body);
+        return new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer destination) {
+                if (!source.hasRemaining()) {
+                    return -1;
+                }
+                int count = Math.min(readSize, Math.min(source.remaining(), destination.remaining()));
+                destination.put(source.slice(source.position(), count));
+                source.position(source.position() + count);
+                return count;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}